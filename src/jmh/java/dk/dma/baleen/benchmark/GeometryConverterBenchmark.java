@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.dma.baleen.service.s124.util.S100GeometryConverter;
+import dk.dma.baleen.service.s124.util.S100GeometryConverter.Reduction;
+import dk.dma.niord.s100.xmlbindings.s100.gml.base._5_0.S100SpatialAttributeType;
+
+/**
+ * Benchmarks conversion between S-100 spatial attributes and JTS geometries, and the union of the geometries of
+ * multiple parts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeometryConverterBenchmark {
+
+    static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory(new PrecisionModel(), 4326);
+
+    /** The number of (partially overlapping) polygons. */
+    @Param({ "1", "10", "100" })
+    int polygons;
+
+    /** The number of vertices of each polygon. */
+    @Param({ "16", "256" })
+    int vertices;
+
+    List<Geometry> geometries;
+
+    List<S100SpatialAttributeType> attributes;
+
+    @Setup
+    public void setup() {
+        geometries = new ArrayList<>();
+        attributes = new ArrayList<>();
+        for (int i = 0; i < polygons; i++) {
+            Polygon p = circle(10 + 0.015 * (i % 10), 55 + 0.015 * (i / 10), 0.01, vertices);
+            geometries.add(p);
+            attributes.addAll(S100GeometryConverter.convertFromGeometry(p));
+        }
+    }
+
+    @Benchmark
+    public Geometry toGeometry() {
+        return S100GeometryConverter.convertToGeometry(attributes, GEOMETRY_FACTORY);
+    }
+
+    @Benchmark
+    public List<S100SpatialAttributeType> fromGeometry() {
+        List<S100SpatialAttributeType> result = new ArrayList<>();
+        for (Geometry g : geometries) {
+            result.addAll(S100GeometryConverter.convertFromGeometry(g));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Geometry union() {
+        return S100GeometryConverter.union(geometries, GEOMETRY_FACTORY);
+    }
+
+    @Benchmark
+    public Geometry collection() {
+        return S100GeometryConverter.reduce(geometries, GEOMETRY_FACTORY, Reduction.COLLECTION);
+    }
+
+    private static Polygon circle(double x, double y, double radius, int vertices) {
+        Coordinate[] coordinates = new Coordinate[vertices + 1];
+        for (int i = 0; i < vertices; i++) {
+            double a = 2 * Math.PI * i / vertices;
+            coordinates[i] = new Coordinate(x + radius * Math.cos(a), y + radius * Math.sin(a));
+        }
+        coordinates[vertices] = coordinates[0];
+        return GEOMETRY_FACTORY.createPolygon(coordinates);
+    }
+}
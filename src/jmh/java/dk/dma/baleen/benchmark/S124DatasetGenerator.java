@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import dk.baleen.s100.xmlbindings.s124.v1_0_0.utils.S124Utils;
+import dk.dma.baleen.service.s124.util.S124DatasetStaxReader;
+import dk.dma.baleen.service.s124.util.S124DatasetSummary;
+
+/**
+ * Generates synthetic S-124 datasets of varying size for benchmarks.
+ * <p>
+ * Geometries are placed around the position of {@code datasets/datasetpoint.xml} in the test resources. Each dataset
+ * has a preamble, a number of references, and a number of parts each with a polygon of the specified number of
+ * vertices.
+ * <p>
+ * The datasets follow the structure of the sample dataset in {@code S124UploadController}, and use the same edition
+ * and namespace. The namespace can be overridden with {@code -Dbaleen.jmh.s124.namespace=...} in case the bindings
+ * expect a different edition. Use {@link #verify(String, int, int)} to check that a generated dataset is read as
+ * intended.
+ */
+final class S124DatasetGenerator {
+
+    static final String S124_NAMESPACE = System.getProperty("baleen.jmh.s124.namespace", "http://www.iho.int/S124/1.0");
+
+    private static final Pattern LOWER_CORNER = Pattern.compile("<[^>]*lowerCorner>\\s*(\\S+)\\s+(\\S+)\\s*<");
+
+    /** The position (lat, lon) the geometries are placed around. */
+    private static final double[] CENTER = readCenter();
+
+    private S124DatasetGenerator() {}
+
+    /**
+     * Generates a dataset.
+     *
+     * @param number
+     *            the warning number, used for making the mrn unique
+     * @param parts
+     *            the number of parts with a geometry
+     * @param vertices
+     *            the number of vertices of the polygon of each part
+     * @return the dataset
+     */
+    static String generate(int number, int parts, int vertices) {
+        StringBuilder b = new StringBuilder(1024 + parts * vertices * 24);
+        b.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        b.append("<S124:Dataset xmlns:S124=\"").append(S124_NAMESPACE).append("\" xmlns:S100=\"http://www.iho.int/s100gml/5.0\"");
+        b.append(" xmlns:gml=\"http://www.opengis.net/gml/3.2\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" gml:id=\"DS-").append(number).append("\">\n");
+        b.append("  <S100:DatasetIdentificationInformation>\n");
+        b.append("    <S100:encodingSpecification>S100 Part 10b</S100:encodingSpecification>\n");
+        b.append("    <S100:encodingSpecificationEdition>1.0</S100:encodingSpecificationEdition>\n");
+        b.append("    <S100:productIdentifier>S-124</S100:productIdentifier>\n");
+        b.append("    <S100:productEdition>1.0.0</S100:productEdition>\n");
+        b.append("    <S100:datasetFileIdentifier>benchmark-").append(number).append("</S100:datasetFileIdentifier>\n");
+        b.append("  </S100:DatasetIdentificationInformation>\n");
+        b.append("  <S124:members>\n");
+
+        b.append("    <S124:NAVWARNPreamble gml:id=\"PR-").append(number).append("\">\n");
+        identifier(b, number);
+        b.append("      <S124:nAVWARNTitle>\n");
+        b.append("        <S124:language>en</S124:language>\n");
+        b.append("        <S124:text>Benchmark warning ").append(number).append("</S124:text>\n");
+        b.append("      </S124:nAVWARNTitle>\n");
+        b.append("      <S124:intService>false</S124:intService>\n");
+        b.append("      <S124:publicationTime>20250101T120000</S124:publicationTime>\n");
+        b.append("    </S124:NAVWARNPreamble>\n");
+
+        for (int r = 1; r <= Math.min(3, number); r++) {
+            b.append("    <S124:References gml:id=\"REF-").append(number).append('-').append(r).append("\">\n");
+            identifier(b, number - r);
+            b.append("    </S124:References>\n");
+        }
+
+        for (int p = 0; p < parts; p++) {
+            b.append("    <S124:NAVWARNPart gml:id=\"P-").append(number).append('-').append(p).append("\">\n");
+            b.append("      <S124:header xlink:href=\"#PR-").append(number).append("\"/>\n");
+            b.append("      <S124:geometry>\n");
+            b.append("        <S100:surfaceProperty>\n");
+            b.append("          <S100:Surface gml:id=\"S-").append(number).append('-').append(p).append("\" srsName=\"EPSG:4326\">\n");
+            b.append("            <gml:patches><gml:PolygonPatch><gml:exterior><gml:LinearRing>\n");
+            b.append("              <gml:posList>");
+            polygon(b, CENTER[0] + 0.05 * (p % 10), CENTER[1] + 0.05 * (p / 10), 0.02, vertices);
+            b.append("</gml:posList>\n");
+            b.append("            </gml:LinearRing></gml:exterior></gml:PolygonPatch></gml:patches>\n");
+            b.append("          </S100:Surface>\n");
+            b.append("        </S100:surfaceProperty>\n");
+            b.append("      </S124:geometry>\n");
+            b.append("    </S124:NAVWARNPart>\n");
+        }
+        b.append("  </S124:members>\n");
+        b.append("</S124:Dataset>\n");
+        return b.toString();
+    }
+
+    private static void identifier(StringBuilder b, int number) {
+        b.append("      <S124:messageSeriesIdentifier>\n");
+        b.append("        <S124:agencyResponsibleForProduction>DMA</S124:agencyResponsibleForProduction>\n");
+        b.append("        <S124:countryName>DK</S124:countryName>\n");
+        b.append("        <S124:nameOfSeries>benchmark</S124:nameOfSeries>\n");
+        b.append("        <S124:warningIdentifier>").append(mrn(number)).append("</S124:warningIdentifier>\n");
+        b.append("        <S124:warningNumber>").append(number).append("</S124:warningNumber>\n");
+        b.append("        <S124:warningType code=\"2\">Coastal Navigational Warning</S124:warningType>\n");
+        b.append("        <S124:year>2025</S124:year>\n");
+        b.append("      </S124:messageSeriesIdentifier>\n");
+    }
+
+    /** {@return the mrn of the dataset with the specified warning number} */
+    static String mrn(int number) {
+        return "urn:mrn:dk:baleen:s-124:benchmark:" + number;
+    }
+
+    /**
+     * Checks that a generated dataset is read as intended, both by a full JAXB unmarshal and by the streaming reader.
+     *
+     * @param gml
+     *            the generated dataset
+     * @param number
+     *            the warning number it was generated with
+     * @param parts
+     *            the number of parts it was generated with
+     * @return the summary of the dataset
+     * @throws IllegalStateException
+     *             if the dataset is not read as intended
+     */
+    static S124DatasetSummary verify(String gml, int number, int parts) {
+        S124DatasetSummary unmarshalled = S124DatasetSummary.of(S124Utils.unmarshallS124(gml));
+        S124DatasetSummary streamed = S124DatasetStaxReader.read(gml);
+        for (S124DatasetSummary s : List.of(unmarshalled, streamed)) {
+            if (!mrn(number).equals(s.mrn()) || s.geometryParts().size() != parts) {
+                throw new IllegalStateException("Generated dataset was read with mrn " + s.mrn() + " and " + s.geometryParts().size()
+                        + " geometry parts, expected " + mrn(number) + " and " + parts + " parts. Check -Dbaleen.jmh.s124.namespace, currently "
+                        + S124_NAMESPACE);
+            }
+        }
+        return streamed;
+    }
+
+    /** Appends a closed ring of (lat, lon) positions around the specified center. */
+    private static void polygon(StringBuilder b, double lat, double lon, double radius, int vertices) {
+        for (int i = 0; i <= vertices; i++) {
+            double a = 2 * Math.PI * (i % vertices) / vertices;
+            if (i > 0) {
+                b.append(' ');
+            }
+            b.append(String.format(Locale.ROOT, "%.7f %.7f", lat + radius * Math.sin(a), lon + radius * Math.cos(a)));
+        }
+    }
+
+    private static double[] readCenter() {
+        String xml;
+        try (InputStream is = S124DatasetGenerator.class.getResourceAsStream("/datasets/datasetpoint.xml")) {
+            if (is == null) {
+                throw new IllegalStateException("datasets/datasetpoint.xml not found on the classpath");
+            }
+            xml = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        Matcher m = LOWER_CORNER.matcher(xml);
+        if (!m.find()) {
+            throw new IllegalStateException("No lowerCorner in datasets/datasetpoint.xml");
+        }
+        return new double[] { Double.parseDouble(m.group(1)), Double.parseDouble(m.group(2)) };
+    }
+
+    /**
+     * Writes a verified dataset to a file, for inspecting the generated datasets.
+     *
+     * @param args
+     *            the file to write to, defaults to {@code target/s124-benchmark-dataset.xml}
+     */
+    public static void main(String[] args) throws IOException {
+        Path p = Path.of(args.length > 0 ? args[0] : "target/s124-benchmark-dataset.xml");
+        Files.writeString(p, verifiedGml(10, 10, 64));
+    }
+
+    private static String verifiedGml(int number, int parts, int vertices) {
+        String gml = generate(number, parts, vertices);
+        verify(gml, number, parts);
+        return gml;
+    }
+}
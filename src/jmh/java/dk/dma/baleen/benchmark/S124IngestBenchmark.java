@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.locationtech.jts.geom.Geometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.baleen.s100.xmlbindings.s124.v1_0_0.utils.S124Utils;
+import dk.dma.baleen.service.ContentHash;
+import dk.dma.baleen.service.s124.util.S124DatasetReader;
+import dk.dma.baleen.service.s124.util.S124DatasetStaxReader;
+import dk.dma.baleen.service.s124.util.S124DatasetSummary;
+import dk.dma.niord.s100.xmlbindings.s124.v2_0_0.Dataset;
+
+/**
+ * Benchmarks the stages an uploaded S-124 dataset goes through before it is stored: hashing, reading (either via a
+ * full JAXB unmarshal or by streaming), and calculating the geometry of the dataset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class S124IngestBenchmark {
+
+    /** The number of parts (each with its own geometry) in the dataset. */
+    @Param({ "1", "10", "100" })
+    int parts;
+
+    /** The number of vertices of the polygon of each part. */
+    @Param({ "16", "256" })
+    int vertices;
+
+    String gml;
+
+    Dataset dataset;
+
+    S124DatasetSummary summary;
+
+    @Setup
+    public void setup() {
+        gml = S124DatasetGenerator.generate(42, parts, vertices);
+        summary = S124DatasetGenerator.verify(gml, 42, parts);
+        dataset = S124Utils.unmarshallS124(gml);
+    }
+
+    @Benchmark
+    public String contentHash() {
+        return ContentHash.of(gml);
+    }
+
+    @Benchmark
+    public Dataset unmarshal() {
+        return S124Utils.unmarshallS124(gml);
+    }
+
+    @Benchmark
+    public S124DatasetSummary streamingRead() {
+        return S124DatasetStaxReader.read(gml);
+    }
+
+    @Benchmark
+    public S124DatasetSummary summaryOfUnmarshalled() {
+        return S124DatasetSummary.of(dataset);
+    }
+
+    @Benchmark
+    public Geometry geometryOfUnmarshalled() {
+        return S124DatasetReader.calculateGeometry(dataset);
+    }
+
+    @Benchmark
+    public Geometry geometryOfSummary() {
+        return summary.calculateGeometry();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.grad.secom.core.models.enums.DigitalSignatureAlgorithmEnum;
+import org.grad.secom.springboot3.components.SecomConfigProperties;
+import org.locationtech.jts.geom.Geometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.dma.baleen.secom.security.BaleenSignatureProvider;
+import dk.dma.baleen.secom.security.MCPSecurityService;
+import dk.dma.baleen.secom.util.MRNToUUID;
+import dk.dma.baleen.secom.util.UnLoCode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Benchmarks the per-request and per-subscriber work of the SECOM interface: mapping MRNs to uuids, resolving UN/LOCODEs
+ * and signing outgoing payloads.
+ * <p>
+ * Signing uses the test keystore also used by the application. {@link #signSharedDataset()} signs the same array every
+ * time, as happens when a publication is delivered to many subscribers, and is answered from the signature cache.
+ * {@link #signFreshDataset()} signs a dataset with different content every time, so it measures the uncached cost of
+ * hashing and signing a dataset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecomBenchmark {
+
+    static final String MRN = "urn:mrn:dk:baleen:s-124:benchmark:42";
+
+    BaleenSignatureProvider signer;
+
+    /** A small payload, comparable to the envelope of an acknowledgement. */
+    byte[] envelope;
+
+    /** A dataset, large enough for signatures to be cached. */
+    byte[] dataset;
+
+    /** Written into every fresh dataset, so no two fresh datasets have the same content. */
+    long sequence;
+
+    @Setup
+    public void setup() throws Exception {
+        SecomConfigProperties config = new SecomConfigProperties();
+        config.setKeystore("secom/mcp-baleen-test-keystore.p12");
+        config.setKeystorePassword("ouXTFHx6apZUk1");
+        config.setTruststore("secom/truststore.p12");
+        config.setTruststorePassword("changeit");
+        signer = new BaleenSignatureProvider(new MCPSecurityService(config, new SimpleMeterRegistry()));
+
+        envelope = ("{\"transactionIdentifier\":\"" + UUID.randomUUID() + "\",\"ackType\":\"DELIVERED_ACK\"}").getBytes(StandardCharsets.UTF_8);
+        dataset = S124DatasetGenerator.generate(42, 10, 64).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public UUID mrnToUuid() throws Exception {
+        return MRNToUUID.createUUIDFromMRN(MRN);
+    }
+
+    @Benchmark
+    public Geometry unlocode() {
+        return UnLoCode.get("DKCPH").get().toGeometry();
+    }
+
+    @Benchmark
+    public byte[] signEnvelope() {
+        return signer.generateSignature(null, DigitalSignatureAlgorithmEnum.SHA3_384_WITH_ECDSA, envelope);
+    }
+
+    @Benchmark
+    public byte[] signFreshDataset() {
+        byte[] fresh = dataset.clone();
+        long n = ++sequence;
+        for (int i = 0; i < 8; i++) {
+            fresh[i] = (byte) (n >>> (i * 8));
+        }
+        return signer.generateSignature(null, DigitalSignatureAlgorithmEnum.SHA3_384_WITH_ECDSA, fresh);
+    }
+
+    @Benchmark
+    public byte[] signSharedDataset() {
+        return signer.generateSignature(null, DigitalSignatureAlgorithmEnum.SHA3_384_WITH_ECDSA, dataset);
+    }
+}
@@ -32,8 +32,9 @@ import { CookieService } from 'ngx-cookie-service';
         
         <div class="filter-group">
           <label>Level Filter:</label>
-          <select [(ngModel)]="levelFilter" (change)="applyFilter()" class="form-control">
+          <select [(ngModel)]="levelFilter" (change)="onLevelFilterChange()" class="form-control">
             <option value="">All Levels</option>
+            <option value="EVENT">EVENT</option>
             <option value="ERROR">ERROR</option>
             <option value="WARN">WARN</option>
             <option value="INFO">INFO</option>
@@ -233,14 +234,13 @@ export class LoggingComponent implements OnInit, OnDestroy, AfterViewChecked {
 
   startAutoRefresh() {
     if (this.autoRefresh) {
-      this.logsSubscription = this.loggingService.getLogsWithAutoRefresh().subscribe(
+      // Only entries at or above the selected level are sent by the server
+      const level = this.levelFilter && this.levelFilter !== 'EVENT' ? this.levelFilter : 'TRACE';
+      this.logsSubscription = this.loggingService.streamLogs(level).subscribe(
         logs => {
-          const previousLength = this.logs.length;
           this.logs = logs;
           this.applyFilter();
-          if (logs.length > previousLength) {
-            this.shouldScrollToBottom = true;
-          }
+          this.shouldScrollToBottom = true;
         }
       );
     }
@@ -275,11 +275,25 @@ export class LoggingComponent implements OnInit, OnDestroy, AfterViewChecked {
       this.loggingService.clearLogs().subscribe(() => {
         this.logs = [];
         this.filteredLogs = [];
+        // Restart auto refresh, so it does not keep the logs it has already fetched
+        if (this.autoRefresh) {
+          this.stopAutoRefresh();
+          this.startAutoRefresh();
+        }
       });
     }
   }
 
 
+  onLevelFilterChange() {
+    this.applyFilter();
+    // Reconnect, so the server filters on the new level
+    if (this.autoRefresh) {
+      this.stopAutoRefresh();
+      this.startAutoRefresh();
+    }
+  }
+
   applyFilter() {
     if (this.levelFilter) {
       this.filteredLogs = this.logs.filter(log => log.level === this.levelFilter);
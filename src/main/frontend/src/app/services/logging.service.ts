@@ -1,9 +1,9 @@
 import { Injectable } from '@angular/core';
 import { HttpClient } from '@angular/common/http';
-import { Observable, interval } from 'rxjs';
-import { switchMap, startWith } from 'rxjs/operators';
+import { Observable } from 'rxjs';
 
 export interface LogEntry {
+  sequence: number;
   timestamp: string;
   level: string;
   logger: string;
@@ -11,6 +11,29 @@ export interface LogEntry {
   thread: string;
 }
 
+export interface LogPage {
+  entries: LogEntry[];
+  cursor: number;
+}
+
+export interface DatasetChangedEvent {
+  dataProductType: string;
+  uuid: string;
+  mrn: string;
+  change: string;
+  time: string;
+}
+
+export interface DeliveryAttemptedEvent {
+  transactionIdentifier: string;
+  mrn: string;
+  dataProductType: string;
+  status: string;
+  responseCode: number;
+  errorMessage?: string;
+  time: string;
+}
+
 @Injectable({
   providedIn: 'root'
 })
@@ -23,12 +46,40 @@ export class LoggingService {
     return this.http.get<LogEntry[]>(`${this.apiUrl}?limit=${limit}`);
   }
 
-  // Get logs with auto-refresh every 2 seconds
-  getLogsWithAutoRefresh(limit: number = 1000): Observable<LogEntry[]> {
-    return interval(2000).pipe(
-      startWith(0),
-      switchMap(() => this.getLogs(limit))
-    );
+  // Get the logs appended since the cursor returned by the previous call
+  getLogsSince(cursor: number, limit: number = 1000): Observable<LogPage> {
+    return this.http.get<LogPage>(`${this.apiUrl}/since?cursor=${cursor}&limit=${limit}`);
+  }
+
+  // Stream new logs, dataset changes and delivery attempts from the server as they happen. Emits the most recent
+  // entries (at most limit) every time something new arrives. Events are shown as entries with level EVENT.
+  streamLogs(level: string = 'TRACE', limit: number = 1000): Observable<LogEntry[]> {
+    return new Observable<LogEntry[]>(subscriber => {
+      let logs: LogEntry[] = [];
+      const emit = (entries: LogEntry[]) => {
+        logs = logs.concat(entries).slice(-limit);
+        subscriber.next(logs);
+      };
+      const event = (logger: string, timestamp: string, message: string): LogEntry =>
+        ({ sequence: -1, timestamp: timestamp.replace('T', ' ').replace('Z', ''), level: 'EVENT', logger, message, thread: '' });
+
+      // The browser reconnects by itself, and the server continues from the last entry received
+      const source = new EventSource(`${this.apiUrl}/stream?level=${level}&limit=${limit}`);
+      source.addEventListener('logs', e => emit(JSON.parse((e as MessageEvent).data)));
+      source.addEventListener('dataset', e => {
+        const d: DatasetChangedEvent = JSON.parse((e as MessageEvent).data);
+        emit([event('dataset', d.time, `${d.dataProductType} dataset ${d.mrn} ${d.change.toLowerCase()}`)]);
+      });
+      source.addEventListener('delivery', e => {
+        const d: DeliveryAttemptedEvent = JSON.parse((e as MessageEvent).data);
+        emit([event('delivery', d.time, `Delivery of ${d.transactionIdentifier} to ${d.mrn}: ${d.status}`
+          + (d.errorMessage ? ` (${d.errorMessage})` : ''))]);
+      });
+      source.addEventListener('dropped', e => {
+        emit([event('stream', new Date().toISOString(), `${(e as MessageEvent).data} log entries or events were dropped`)]);
+      });
+      return () => source.close();
+    });
   }
 
   clearLogs(): Observable<any> {
@@ -18,6 +18,22 @@ export interface S124DatasetDetail extends S124Dataset {
   gml: string;
 }
 
+export interface NiordSyncResult {
+  inserted: number;
+  updated: number;
+  cancelled: number;
+  unchanged: number;
+  failed: number;
+  durationMillis: number;
+}
+
+export interface NiordReloadResult {
+  success: boolean;
+  datasetsLoaded: number;
+  message: string;
+  sync: NiordSyncResult | null;
+}
+
 export interface Page<T> {
   content: T[];
   totalElements: number;
@@ -66,8 +82,8 @@ export class S124DatasetService {
     return this.http.delete<void>(`${this.apiUrl}/clear`);
   }
 
-  reloadFromNiord(): Observable<{ success: boolean; datasetsLoaded: number; message: string }> {
-    return this.http.post<{ success: boolean; datasetsLoaded: number; message: string }>(
+  reloadFromNiord(): Observable<NiordReloadResult> {
+    return this.http.post<NiordReloadResult>(
       `${this.apiUrl}/reload-from-niord`, 
       {}
     );
@@ -16,9 +16,14 @@
 
 package dk.dma.baleen.controller;
 
+import ch.qos.logback.classic.Level;
 import dk.dma.baleen.logging.InMemoryLogAppender;
 import dk.dma.baleen.logging.InMemoryLogAppender.LogEntry;
+import dk.dma.baleen.logging.InMemoryLogAppender.LogPage;
+import dk.dma.baleen.logging.LogStreamService;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 import java.util.Map;
@@ -27,12 +32,31 @@ import java.util.Map;
 @RequestMapping("/api/logs")
 public class LoggingController {
 
+    private final LogStreamService streamService;
+
+    public LoggingController(LogStreamService streamService) {
+        this.streamService = streamService;
+    }
+
     @GetMapping
     public List<LogEntry> getLogs(@RequestParam(defaultValue = "1000") int limit) {
         // Return recent logs up to the specified limit
         return InMemoryLogAppender.getRecentLogs(limit);
     }
 
+    @GetMapping("/since")
+    public LogPage getLogsSince(@RequestParam(defaultValue = "0") long cursor, @RequestParam(defaultValue = "1000") int limit) {
+        // Return the logs appended since the cursor of the previous call, up to the specified limit
+        return InMemoryLogAppender.getLogsSince(cursor, limit);
+    }
+
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamLogs(@RequestParam(defaultValue = "TRACE") String level, @RequestParam(defaultValue = "1000") int limit,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        // Browsers send the id of the last event received when reconnecting, continue from there
+        return streamService.open(Level.toLevel(level, Level.TRACE), lastEventId == null ? 0 : lastEventId, limit);
+    }
+
     @DeleteMapping
     public Map<String, String> clearLogs() {
         InMemoryLogAppender.clearLogs();
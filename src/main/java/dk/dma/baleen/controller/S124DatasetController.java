@@ -16,10 +16,15 @@
 
 package dk.dma.baleen.controller;
 
+import dk.dma.baleen.secom.service.SecomExchangeSetCache;
+import dk.dma.baleen.service.DatasetPayloadCache;
 import dk.dma.baleen.service.s124.model.S124DatasetInstanceEntity;
 import dk.dma.baleen.service.s124.repository.S124DatasetInstanceRepository;
 import dk.dma.baleen.service.s124.NiordApiCaller2;
-import dk.dma.baleen.service.s124.service.S124Service;
+import dk.dma.baleen.service.s124.service.NiordSyncService;
+import dk.dma.baleen.service.s124.service.S124DatasetIndex;
+import dk.dma.baleen.service.s124.service.S124DatasetMrnCache;
+import dk.dma.baleen.service.s124.service.NiordSyncService.SyncResult;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
@@ -46,14 +51,26 @@ public class S124DatasetController {
     
     private final S124DatasetInstanceRepository repository;
     private final NiordApiCaller2 niordApiCaller;
-    private final S124Service s124Service;
+    private final NiordSyncService niordSyncService;
+    private final S124DatasetIndex datasetIndex;
+    private final DatasetPayloadCache payloadCache;
+    private final S124DatasetMrnCache mrnCache;
+    private final SecomExchangeSetCache exchangeSetCache;
 
     public S124DatasetController(S124DatasetInstanceRepository repository, 
                                 NiordApiCaller2 niordApiCaller,
-                                S124Service s124Service) {
+                                NiordSyncService niordSyncService,
+                                S124DatasetIndex datasetIndex,
+                                DatasetPayloadCache payloadCache,
+                                S124DatasetMrnCache mrnCache,
+                                SecomExchangeSetCache exchangeSetCache) {
         this.repository = repository;
         this.niordApiCaller = niordApiCaller;
-        this.s124Service = s124Service;
+        this.niordSyncService = niordSyncService;
+        this.datasetIndex = datasetIndex;
+        this.payloadCache = payloadCache;
+        this.mrnCache = mrnCache;
+        this.exchangeSetCache = exchangeSetCache;
     }
 
     @GetMapping
@@ -101,49 +118,37 @@ public class S124DatasetController {
     public ResponseEntity<Void> clearAllDatasets() {
         log.info("Clearing all S124 datasets");
         repository.deleteAll();
+        datasetIndex.clear();
+        payloadCache.clear();
+        mrnCache.clear();
+        exchangeSetCache.clear();
         return ResponseEntity.noContent().build();
     }
     
     @PostMapping("/reload-from-niord")
     public ResponseEntity<ReloadResult> reloadFromNiord() {
         if (!niordApiCaller.isNiordEndpointConfigured()) {
-            return ResponseEntity.badRequest().body(new ReloadResult(false, 0, "Niord endpoint not configured"));
+            return ResponseEntity.badRequest().body(new ReloadResult(false, 0, "Niord endpoint not configured", null));
         }
         
         try {
-            log.info("Starting reload of S124 datasets from Niord");
-            
-            // Clear existing datasets
-            repository.deleteAll();
-            
-            // Fetch all datasets from Niord
-            List<NiordApiCaller2.Result> results = niordApiCaller.fetchAll();
-            
-            int successCount = 0;
-            for (NiordApiCaller2.Result result : results) {
-                try {
-                    s124Service.upload(result.xml());
-                    successCount++;
-                } catch (Exception e) {
-                    log.error("Failed to upload dataset: {}", e.getMessage());
-                }
-            }
-            
-            log.info("Reload completed. Uploaded {} out of {} datasets", successCount, results.size());
-            return ResponseEntity.ok(new ReloadResult(true, successCount, 
-                String.format("Successfully loaded %d datasets from Niord", successCount)));
-            
+            log.info("Starting synchronization of S124 datasets with Niord");
+            SyncResult sync = niordSyncService.sync();
+            int loaded = sync.inserted() + sync.updated();
+            return ResponseEntity.ok(new ReloadResult(true, loaded,
+                String.format("Synchronized with Niord in %d ms: %d inserted, %d updated, %d cancelled, %d unchanged, %d failed",
+                    sync.durationMillis(), sync.inserted(), sync.updated(), sync.cancelled(), sync.unchanged(), sync.failed()), sync));
         } catch (Exception e) {
             log.error("Failed to reload datasets from Niord", e);
             return ResponseEntity.internalServerError()
-                .body(new ReloadResult(false, 0, "Failed to reload: " + e.getMessage()));
+                .body(new ReloadResult(false, 0, "Failed to reload: " + e.getMessage(), null));
         }
     }
     
     // Additional DTOs
     public record NiordStatus(boolean configured) {}
     
-    public record ReloadResult(boolean success, int datasetsLoaded, String message) {}
+    public record ReloadResult(boolean success, int datasetsLoaded, String message, SyncResult sync) {}
 
     // DTO class for API responses
     public record S124DatasetDto(
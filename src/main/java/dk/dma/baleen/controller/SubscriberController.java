@@ -30,6 +30,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import dk.dma.baleen.secom.model.SecomSubscriberEntity;
 import dk.dma.baleen.secom.repository.SecomSubscriberRepository;
+import dk.dma.baleen.secom.serviceold.SecomSubscriberService;
 
 @RestController
 @RequestMapping("/api/subscribers")
@@ -40,6 +41,9 @@ public class SubscriberController {
     @Autowired
     private SecomSubscriberRepository subscriberRepository;
 
+    @Autowired
+    private SecomSubscriberService subscriberService;
+
     @GetMapping
     @Transactional(readOnly = true)
     public List<SubscriberDto> getAllSubscribers() {
@@ -90,7 +94,7 @@ public class SubscriberController {
     public void removeAllSubscribers() {
         try {
             log.info("Remove all subscribers");
-            subscriberRepository.deleteAll();
+            subscriberService.removeAll();
             log.info("All subscribers have been removed");
         } catch (Exception e) {
             log.error("Error clearing subscribers", e);
@@ -17,70 +17,115 @@
 package dk.dma.baleen.logging;
 
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
 
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.List;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent log events in memory, so they can be shown in the UI.
+ * <p>
+ * Events are stored in a fixed-capacity ring buffer. Each event gets a sequence number, which also decides its slot, so
+ * appending is a single atomic increment and store and never blocks. Events are stored raw and only formatted when
+ * read. Readers pass the sequence number returned by their previous read (the cursor), and only get the events
+ * appended since.
+ */
+public class InMemoryLogAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    /** The number of log events kept, must be a power of two. */
+    private static final int CAPACITY = 16384;
 
-public class InMemoryLogAppender extends AppenderBase<ILoggingEvent> {
+    private static final int MASK = CAPACITY - 1;
 
-    private static final int MAX_LOGS = 10000; // Keep last 10000 log entries
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
 
-    // Use a thread-safe deque to store logs
-    private static final ConcurrentLinkedDeque<LogEntry> logDeque = new ConcurrentLinkedDeque<>();
+    /** The stored events, the event with sequence number n is stored at n & MASK. */
+    private static final AtomicReferenceArray<Event> events = new AtomicReferenceArray<>(CAPACITY);
+
+    /** The sequence number of the next event. */
+    private static final AtomicLong next = new AtomicLong();
+
+    /** Events with a lower sequence number have been cleared. */
+    private static volatile long clearedBefore;
 
     @Override
     protected void append(ILoggingEvent event) {
         if (!isStarted()) {
             return;
         }
-
-        LogEntry logEntry = new LogEntry(
-            Instant.ofEpochMilli(event.getTimeStamp()).atZone(ZoneId.systemDefault()).format(DATE_FORMATTER),
-            event.getLevel().toString(),
-            event.getLoggerName(),
-            event.getFormattedMessage(),
-            event.getThreadName()
-        );
-
-        logDeque.addLast(logEntry);
-
-        // Remove oldest entries if we exceed max size
-        while (logDeque.size() > MAX_LOGS) {
-            logDeque.removeFirst();
-        }
+        // The message is formatted here, the arguments may not be safe to format on another thread later
+        long sequence = next.getAndIncrement();
+        events.set((int) (sequence & MASK), new Event(sequence, event.getTimeStamp(), event.getLevel().toString(), event.getLoggerName(),
+                event.getFormattedMessage(), event.getThreadName()));
     }
 
     public static List<LogEntry> getLogs() {
-        return new ArrayList<>(logDeque);
+        return getLogsSince(0, CAPACITY).entries();
     }
 
     public static List<LogEntry> getRecentLogs(int count) {
-        List<LogEntry> result = new ArrayList<>();
-        int skip = Math.max(0, logDeque.size() - count);
-        int index = 0;
-
-        for (LogEntry entry : logDeque) {
-            if (index++ >= skip) {
-                result.add(entry);
-            }
-        }
+        return getLogsSince(0, count).entries();
+    }
 
-        return result;
+    /**
+     * Returns the events appended since the specified cursor, at most the specified number of the most recent events are
+     * returned.
+     *
+     * @param cursor
+     *            the cursor returned by the previous read, or 0 to read from the oldest event kept
+     * @param limit
+     *            the maximum number of events to return
+     * @return the events and the cursor to pass to the next read
+     */
+    public static LogPage getLogsSince(long cursor, int limit) {
+        long head = next.get();
+        // A cursor ahead of the buffer was handed out before a restart, start over
+        long from = cursor > head ? 0 : cursor;
+        from = Math.max(from, Math.max(clearedBefore, head - Math.min(CAPACITY, Math.max(limit, 0))));
+
+        List<LogEntry> result = new ArrayList<>((int) (head - from));
+        for (long sequence = from; sequence < head; sequence++) {
+            Event e = events.get((int) (sequence & MASK));
+            if (e == null || e.sequence < sequence) {
+                // The writer has claimed the slot but not stored the event yet, continue from here on the next read
+                return new LogPage(result, sequence);
+            } else if (e.sequence == sequence) {
+                result.add(e.toEntry());
+            } // else overwritten while reading, the event is lost
+        }
+        return new LogPage(result, head);
     }
 
     public static void clearLogs() {
-        logDeque.clear();
+        clearedBefore = next.get();
     }
 
     public static int getLogCount() {
-        return logDeque.size();
+        long head = next.get();
+        return (int) Math.min(CAPACITY, head - clearedBefore);
+    }
+
+    /** A stored log event. */
+    private record Event(long sequence, long timestamp, String level, String logger, String message, String thread) {
+        LogEntry toEntry() {
+            return new LogEntry(sequence, DATE_FORMATTER.format(Instant.ofEpochMilli(timestamp)), level, logger, message, thread);
+        }
     }
 
-    public record LogEntry(String timestamp, String level, String logger, String message, String thread) {}
-}
\ No newline at end of file
+    public record LogEntry(long sequence, String timestamp, String level, String logger, String message, String thread) {}
+
+    /**
+     * The result of an incremental read.
+     *
+     * @param entries
+     *            the log entries, oldest first
+     * @param cursor
+     *            the cursor to pass to the next read
+     */
+    public record LogPage(List<LogEntry> entries, long cursor) {}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2024 Danish Maritime Authority.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dk.dma.baleen.logging;
+
+import ch.qos.logback.classic.Level;
+import dk.dma.baleen.logging.InMemoryLogAppender.LogEntry;
+import dk.dma.baleen.logging.InMemoryLogAppender.LogPage;
+import dk.dma.baleen.secom.serviceold.DeliveryAttemptedEvent;
+import dk.dma.baleen.service.DatasetChangedEvent;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter.SseEventBuilder;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams new log entries, dataset changes and delivery attempts to clients as server-sent events.
+ * <p>
+ * Every client is served by its own virtual thread, which reads new log entries from {@link InMemoryLogAppender} using a
+ * cursor, so a slow client only falls behind itself. Log entries below the level requested by the client are never
+ * sent. A client that falls more than {@value #BATCH_SIZE} log entries behind skips ahead to the most recent entries,
+ * and application events that cannot be queued for a client are dropped. Both are reported to the client as a
+ * {@code dropped} event.
+ * <p>
+ * The following events are sent:
+ * <ul>
+ * <li>{@code logs}, a list of new log entries, the id of the event is the cursor to resume from</li>
+ * <li>{@code dataset}, a {@link DatasetChangedEvent}</li>
+ * <li>{@code delivery}, a {@link DeliveryAttemptedEvent}</li>
+ * <li>{@code dropped}, the number of log entries and events that were dropped</li>
+ * </ul>
+ */
+@Service
+public class LogStreamService {
+
+    private static final Logger log = LoggerFactory.getLogger(LogStreamService.class);
+
+    /** The maximum number of log entries sent in a single event. */
+    private static final int BATCH_SIZE = 500;
+
+    /** The maximum number of application events queued per client. */
+    private static final int QUEUE_SIZE = 256;
+
+    /** How often a client checks for new log entries when idle. */
+    @Value("${baleen.logs.stream.poll-interval:PT0.25S}")
+    Duration pollInterval;
+
+    /** How often a comment is sent to idle clients, so disconnected clients are detected. */
+    @Value("${baleen.logs.stream.heartbeat-interval:PT15S}")
+    Duration heartbeatInterval;
+
+    /** The maximum number of clients connected at the same time. */
+    @Value("${baleen.logs.stream.max-clients:32}")
+    int maxClients;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Opens a new stream.
+     *
+     * @param minLevel
+     *            the minimum level of log entries sent to the client
+     * @param cursor
+     *            the cursor to start from, 0 to start with the most recent log entries
+     * @param limit
+     *            the maximum number of existing log entries sent when the stream is opened
+     * @return the emitter of the stream
+     */
+    public SseEmitter open(Level minLevel, long cursor, int limit) {
+        if (clients.size() >= maxClients) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many log streams open");
+        }
+        SseEmitter emitter = new SseEmitter(0L); // Never times out, closed when the client disconnects
+        // Start with the most recent entries, instead of everything kept in memory
+        LogPage initial = InMemoryLogAppender.getLogsSince(cursor, limit);
+        Client c = new Client(emitter, minLevel, initial);
+        clients.add(c);
+        emitter.onCompletion(c::close);
+        emitter.onTimeout(c::close);
+        emitter.onError(e -> c.close());
+        executor.execute(c::run);
+        return emitter;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDatasetChanged(DatasetChangedEvent event) {
+        publish("dataset", event);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeliveryAttempted(DeliveryAttemptedEvent event) {
+        publish("delivery", event);
+    }
+
+    private void publish(String name, Object event) {
+        for (Client c : clients) {
+            c.offer(name, event);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        for (Client c : clients) {
+            c.emitter.complete();
+        }
+        executor.shutdownNow();
+    }
+
+    /** A connected client. */
+    private final class Client {
+
+        private final SseEmitter emitter;
+
+        private final Level minLevel;
+
+        /** Application events not yet sent. */
+        private final BlockingQueue<SseEventBuilder> events = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+        /** The number of log entries and events dropped since last reported to the client. */
+        private final AtomicInteger dropped = new AtomicInteger();
+
+        /** The initial log entries, sent as the first event. */
+        private final LogPage initial;
+
+        private volatile boolean closed;
+
+        Client(SseEmitter emitter, Level minLevel, LogPage initial) {
+            this.emitter = emitter;
+            this.minLevel = minLevel;
+            this.initial = initial;
+        }
+
+        void close() {
+            closed = true;
+            clients.remove(this);
+        }
+
+        void offer(String name, Object event) {
+            if (!events.offer(SseEmitter.event().name(name).data(event))) {
+                dropped.incrementAndGet();
+            }
+        }
+
+        void run() {
+            long cursor = initial.cursor();
+            long lastSent = System.nanoTime();
+            try {
+                send(initial.entries(), cursor);
+                while (!closed) {
+                    LogPage next = InMemoryLogAppender.getLogsSince(cursor, BATCH_SIZE);
+                    List<LogEntry> entries = next.entries();
+                    if (!entries.isEmpty() && entries.get(0).sequence() > cursor) {
+                        dropped.addAndGet((int) Math.min(Integer.MAX_VALUE, entries.get(0).sequence() - cursor));
+                    }
+                    boolean sent = send(entries, next.cursor());
+                    cursor = next.cursor();
+
+                    for (SseEventBuilder e = events.poll(); e != null; e = events.poll()) {
+                        emitter.send(e);
+                        sent = true;
+                    }
+                    int d = dropped.getAndSet(0);
+                    if (d > 0) {
+                        emitter.send(SseEmitter.event().name("dropped").data(d));
+                        sent = true;
+                    }
+
+                    if (sent) {
+                        lastSent = System.nanoTime();
+                    } else if (System.nanoTime() - lastSent > heartbeatInterval.toNanos()) {
+                        emitter.send(SseEmitter.event().comment("heartbeat"));
+                        lastSent = System.nanoTime();
+                    }
+                    // Check again right away if there might be more entries
+                    if (entries.size() < BATCH_SIZE) {
+                        TimeUnit.NANOSECONDS.sleep(pollInterval.toNanos());
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                log.debug("Log stream closed: {}", e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        /** Sends the entries at or above the minimum level of the client, returns whether anything was sent. */
+        private boolean send(List<LogEntry> entries, long cursor) throws IOException {
+            List<LogEntry> filtered = new ArrayList<>(entries.size());
+            for (LogEntry e : entries) {
+                if (Level.toLevel(e.level()).isGreaterOrEqual(minLevel)) {
+                    filtered.add(e);
+                }
+            }
+            if (filtered.isEmpty()) {
+                return false;
+            }
+            emitter.send(SseEmitter.event().name("logs").id(Long.toString(cursor)).data(filtered));
+            return true;
+        }
+    }
+}
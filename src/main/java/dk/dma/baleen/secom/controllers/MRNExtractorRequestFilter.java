@@ -23,8 +23,13 @@ import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import dk.dma.baleen.secom.service.SecomInteractionTracker;
+
 import jakarta.annotation.Priority;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.ws.rs.Priorities;
@@ -36,15 +41,20 @@ import jakarta.ws.rs.core.UriInfo;
 import jakarta.ws.rs.ext.Provider;
 
 /**
- * Extracts the MRN from the header of the request
+ * Extracts the MRN from the header of the request, and records the interaction with the node.
  */
 @Provider
 @Component
 @Priority(Priorities.AUTHORIZATION)
 public class MRNExtractorRequestFilter implements ContainerRequestFilter {
 
+    private static final Logger logger = LoggerFactory.getLogger(MRNExtractorRequestFilter.class);
+
     public static final String MRN_ATTRIBUTE = "X-MRN";
 
+    @Autowired
+    SecomInteractionTracker interactionTracker;
+
     @Context
     UriInfo info;
 
@@ -134,11 +144,14 @@ public class MRNExtractorRequestFilter implements ContainerRequestFilter {
                 X509Certificate cert = convertToX509Certificate(headerString);
                 String mrn = extractUIDFromCertificate(cert);
                 req.setAttribute(MRN_ATTRIBUTE, mrn);
+                if (mrn != null) {
+                    interactionTracker.record(mrn);
+                }
             } catch (Exception e) {
-                e.printStackTrace();
+                logger.warn("Could not extract MRN from certificate", e);
             }
         } else {
-            System.out.println("No Header string");
+            logger.debug("No certificate header on request {}", info.getPath());
         }
     }
 }
\ No newline at end of file
@@ -17,11 +17,15 @@ package dk.dma.baleen.secom.controllers;
 
 import static java.util.Objects.requireNonNull;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import org.grad.secom.core.exceptions.SecomNotImplementedException;
 import org.grad.secom.core.exceptions.SecomValidationException;
@@ -38,13 +42,23 @@ import org.grad.secom.core.models.enums.ContainerTypeEnum;
 import org.grad.secom.core.models.enums.SECOM_DataProductType;
 import org.locationtech.jts.geom.Geometry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
+import dk.dma.baleen.secom.service.SecomExchangeSetCache;
 import dk.dma.baleen.secom.service.SecomGetService;
 import dk.dma.baleen.secom.service.SecomLinkStorageService;
+import dk.dma.baleen.secom.util.S100ExchangeSetWriter;
+import dk.dma.baleen.secom.util.ZipDirectory;
+import dk.dma.baleen.service.BaleenMetrics;
+import dk.dma.baleen.service.DatasetPayloadCache;
 import dk.dma.baleen.service.spi.DataSet;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.Min;
@@ -67,10 +81,29 @@ public class SecomGetController extends AbstractSecomController implements GetSe
     /** A SECOM service that handle all get requests. */
     private SecomGetService secomGetService;
 
+    /** A cache of the content of recently served datasets. */
+    private DatasetPayloadCache payloadCache;
+
+    /** A cache of recently served exchange sets. */
+    @Autowired
+    SecomExchangeSetCache exchangeSetCache;
+
+    /** The compression level of exchange sets, either {@link ZipDirectory#STORED} or a deflate level. */
+    @Value("${secom.exchange-set.compression-level:-1}")
+    int exchangeSetCompressionLevel;
+
+    /** The maximum size of an exchange set returned from get. */
+    @Value("${secom.exchange-set.max-size:64MB}")
+    DataSize exchangeSetMaxSize;
+
     @Autowired
-    public SecomGetController(SecomLinkStorageService linkStorageService, SecomGetService secomGetService) {
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    public SecomGetController(SecomLinkStorageService linkStorageService, SecomGetService secomGetService, DatasetPayloadCache payloadCache) {
         this.linkStorageService = requireNonNull(linkStorageService);
         this.secomGetService = requireNonNull(secomGetService);
+        this.payloadCache = requireNonNull(payloadCache);
     }
 
     /** {@inheritDoc} */
@@ -88,15 +121,33 @@ public class SecomGetController extends AbstractSecomController implements GetSe
             containerType = ContainerTypeEnum.S100_DataSet;
         }
 
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            GetResponseObject response = get1(dataReference, containerType, dataProductType, productVersion, geometry, unlocode, validFrom, validTo,
+                    page, pageSize);
+            success = true;
+            return response;
+        } finally {
+            recordRequest("baleen.secom.get", dataProductType, productVersion, start, success);
+        }
+    }
+
+    private GetResponseObject get1(UUID dataReference, ContainerTypeEnum containerType, SECOM_DataProductType dataProductType, String productVersion,
+            String geometry, String unlocode, LocalDateTime validFrom, LocalDateTime validTo, Integer page, Integer pageSize) {
         // Find all data from th
         Page<? extends DataSet> data = get0(dataReference, dataProductType, productVersion, geometry, unlocode, validFrom, validTo, page, pageSize);
 
         List<DataResponseObject> objects = new ArrayList<>();
 
+        // The datasets are detached, so content that is not cached is loaded by the data product in a new transaction
+        Function<DataSet, byte[]> loader = ds -> secomGetService.loadContent(dataProductType, ds);
+        Function<DataSet, byte[]> content = ds -> payloadCache.get(ds, loader);
+
         if (containerType == ContainerTypeEnum.S100_DataSet) {
             for (DataSet ds : data) {
                 DataResponseObject dro = new DataResponseObject();
-                dro.setData(ds.toByteArray());
+                dro.setData(content.apply(ds));
 
                 SECOM_ExchangeMetadataObject emo = new SECOM_ExchangeMetadataObject();
                 emo.setCompressionFlag(false);
@@ -105,10 +156,35 @@ public class SecomGetController extends AbstractSecomController implements GetSe
 
                 objects.add(dro);
             }
-        } else if (containerType == ContainerTypeEnum.S100_ExchangeSet) {
-            throw new SecomNotImplementedException("Baleen does not currently support exchange sets");
+        } else if (containerType == ContainerTypeEnum.S100_ExchangeSet && !data.isEmpty()) {
+            // All datasets of the page are returned in a single exchange set
+            DataResponseObject dro = new DataResponseObject();
+            try {
+                dro.setData(exchangeSetCache.get(S100ExchangeSetWriter.productSpecification(dataProductType), productVersion, data.getContent(),
+                        content, exchangeSetCompressionLevel, exchangeSetMaxSize.toBytes()));
+            } catch (ZipDirectory.ZipFileSizeExceeded e) {
+                throw new SecomValidationException("The exchange set would exceed " + exchangeSetMaxSize + ", request a smaller page size");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            SECOM_ExchangeMetadataObject emo = new SECOM_ExchangeMetadataObject();
+            emo.setCompressionFlag(false);
+            emo.setDataProtection(false);
+            dro.setExchangeMetadata(emo);
+
+            objects.add(dro);
         }
 
+        Tags tags = BaleenMetrics.requestTags(dataProductType, productVersion);
+        long bytes = 0;
+        for (DataResponseObject dro : objects) {
+            bytes += dro.getData().length;
+        }
+        DistributionSummary.builder("baleen.secom.get.datasets").tags(tags).register(meterRegistry).record(data.getNumberOfElements());
+        DistributionSummary.builder("baleen.secom.get.bytes").baseUnit("bytes").tags(tags).tag("container", containerType.name()).register(meterRegistry)
+                .record(bytes);
+
         GetResponseObject response = new GetResponseObject();
         response.setDataResponseObject(objects);
         response.setPagination(new PaginationObject(objects.size(), Optional.ofNullable(pageSize).orElse(Integer.MAX_VALUE)));
@@ -131,6 +207,12 @@ public class SecomGetController extends AbstractSecomController implements GetSe
         return secomGetService.get(mrn(), dataReference, dataProductType, productVersion, geometry, unlocode, jtsGeometry, validFrom, validTo, page, pageSize);
     }
 
+    /** Records the time taken by a request, tagged by product, version and whether it succeeded. */
+    private void recordRequest(String name, SECOM_DataProductType dataProductType, String productVersion, long start, boolean success) {
+        meterRegistry.timer(name, BaleenMetrics.requestTags(dataProductType, productVersion).and("result", success ? "success" : "error"))
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
     /** {@inheritDoc} */
     @Override
     public byte[] getByLink(@QueryParam("transactionIdentifier") UUID transactionIdentifier) {
@@ -148,6 +230,20 @@ public class SecomGetController extends AbstractSecomController implements GetSe
 
         // containerType has mandatory processing, but have no idea what do with it
 
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            GetSummaryResponseObject response = getSummary0(containerType, dataProductType, productVersion, geometry, unlocode, validFrom, validTo,
+                    page, pageSize);
+            success = true;
+            return response;
+        } finally {
+            recordRequest("baleen.secom.get-summary", dataProductType, productVersion, start, success);
+        }
+    }
+
+    private GetSummaryResponseObject getSummary0(ContainerTypeEnum containerType, SECOM_DataProductType dataProductType, String productVersion,
+            String geometry, String unlocode, LocalDateTime validFrom, LocalDateTime validTo, Integer page, Integer pageSize) {
         // Find all relevant data
         Page<? extends DataSet> data = get0(null, dataProductType, productVersion, geometry, unlocode, validFrom, validTo, page, pageSize);
 
@@ -160,9 +256,14 @@ public class SecomGetController extends AbstractSecomController implements GetSe
             so.setDataCompression(Boolean.FALSE);
             so.setContainerType(containerType);
             so.setDataProductType(dataProductType);
-            so.setInfo_size(ds.toByteArray().length % 1024L);
+            // The size is in kilobytes, rounded up
+            so.setInfo_size((ds.size() + 1023L) / 1024L);
+            summaryObjects.add(so);
         }
 
+        DistributionSummary.builder("baleen.secom.get-summary.datasets").tags(BaleenMetrics.requestTags(dataProductType, productVersion))
+                .register(meterRegistry).record(summaryObjects.size());
+
         // Create and return the response
         GetSummaryResponseObject response = new GetSummaryResponseObject();
         response.setSummaryObject(summaryObjects);
@@ -64,7 +64,7 @@ public class SecomSubscriptionController extends AbstractSecomController impleme
     public SubscriptionResponseObject subscription(@Valid SubscriptionRequestObject request) {
         UUID subscriptionIdentifier;
         try {
-        subscriptionIdentifier = secom.subscribe(mrn(), request);
+        subscriptionIdentifier = secom.subscribe(mrn(), request, parseGeometry(request.getGeometry(), request.getUnlocode()));
         }
         catch (Throwable t) {
             t.printStackTrace();
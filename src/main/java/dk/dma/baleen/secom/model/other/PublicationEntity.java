@@ -18,8 +18,13 @@ package dk.dma.baleen.secom.model.other;
 import java.time.Instant;
 import java.util.UUID;
 
+import org.grad.secom.core.models.enums.ContainerTypeEnum;
+import org.grad.secom.core.models.enums.SECOM_DataProductType;
+
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
@@ -31,6 +36,14 @@ import jakarta.persistence.Lob;
 @Entity
 public class PublicationEntity {
 
+    @Enumerated(EnumType.STRING) // H2 does not support default tinyint mapping
+    @Column(nullable = false)
+    private ContainerTypeEnum containerType;
+
+    @Enumerated(EnumType.STRING) // H2 does not support default tinyint mapping
+    @Column(nullable = false)
+    private SECOM_DataProductType dataProductType;
+
     @Lob
     @Column(nullable = false)
     private byte[] envelopeUploadObject; // The actual data to be published
@@ -85,4 +98,32 @@ public class PublicationEntity {
     public void setCreatedAt(Instant createdAt) {
         this.createdAt = createdAt;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the containerType
+     */
+    public ContainerTypeEnum getContainerType() {
+        return containerType;
+    }
+
+    /**
+     * @param containerType the containerType to set
+     */
+    public void setContainerType(ContainerTypeEnum containerType) {
+        this.containerType = containerType;
+    }
+
+    /**
+     * @return the dataProductType
+     */
+    public SECOM_DataProductType getDataProductType() {
+        return dataProductType;
+    }
+
+    /**
+     * @param dataProductType the dataProductType to set
+     */
+    public void setDataProductType(SECOM_DataProductType dataProductType) {
+        this.dataProductType = dataProductType;
+    }
+}
@@ -16,9 +16,18 @@
 package dk.dma.baleen.secom.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import dk.dma.baleen.secom.model.SecomSubscriberEntity;
 import dk.dma.baleen.secom.model.other.PublicationRecipiantAttemptedDeliveryEntity;
 
 @Repository
-public interface PublicationRecipiantAttemptedDeliveryEntityRepository extends JpaRepository<PublicationRecipiantAttemptedDeliveryEntity, Long> {}
\ No newline at end of file
+public interface PublicationRecipiantAttemptedDeliveryEntityRepository extends JpaRepository<PublicationRecipiantAttemptedDeliveryEntity, Long> {
+
+    @Modifying
+    @Query("DELETE FROM PublicationRecipiantAttemptedDeliveryEntity a WHERE a.message.subscription = :subscription")
+    int deleteBySubscription(@Param("subscription") SecomSubscriberEntity subscription);
+}
\ No newline at end of file
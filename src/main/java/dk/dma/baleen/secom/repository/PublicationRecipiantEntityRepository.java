@@ -18,18 +18,39 @@ package dk.dma.baleen.secom.repository;
 import java.time.Instant;
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import dk.dma.baleen.secom.model.SecomSubscriberEntity;
 import dk.dma.baleen.secom.model.other.PublicationRecipiantEntity;
+import dk.dma.baleen.secom.model.other.PublicationRecipiantEntity.DeliveryStatus;
 
 @Repository
 public interface PublicationRecipiantEntityRepository extends JpaRepository<PublicationRecipiantEntity, Long> {
 
+    /**
+     * Finds deliveries with the specified status that are due. Subscribers that have deliveries being processed, or
+     * earlier deliveries that are not yet due, are skipped so deliveries to a subscriber are made in order.
+     */
     @Query("SELECT p FROM PublicationRecipiantEntity p " +
+           "JOIN FETCH p.subscription s JOIN FETCH s.node JOIN FETCH p.publishedDataSet " +
            "WHERE p.status = :status AND p.nextRetryAt <= :now " +
-           "ORDER BY p.subscription.id, p.createdAt")
-    List<PublicationRecipiantEntity> findReadyForRetry(@Param("now") Instant now);
-}
\ No newline at end of file
+           "AND NOT EXISTS (SELECT o FROM PublicationRecipiantEntity o WHERE o.subscription = p.subscription " +
+           "AND (o.status = :processing OR (o.status = :status AND o.nextRetryAt > :now " +
+           "AND (o.createdAt < p.createdAt OR (o.createdAt = p.createdAt AND o.id < p.id))))) " +
+           "ORDER BY p.subscription.id, p.createdAt, p.id")
+    List<PublicationRecipiantEntity> findReadyForRetry(@Param("status") DeliveryStatus status, @Param("processing") DeliveryStatus processing,
+            @Param("now") Instant now, Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE PublicationRecipiantEntity p SET p.status = :newStatus WHERE p.status = :status")
+    int updateStatus(@Param("status") DeliveryStatus status, @Param("newStatus") DeliveryStatus newStatus);
+
+    @Modifying
+    @Query("DELETE FROM PublicationRecipiantEntity p WHERE p.subscription = :subscription")
+    int deleteBySubscription(@Param("subscription") SecomSubscriberEntity subscription);
+}
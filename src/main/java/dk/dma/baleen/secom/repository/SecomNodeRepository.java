@@ -16,6 +16,8 @@
 
 package dk.dma.baleen.secom.repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -29,6 +31,8 @@ public interface SecomNodeRepository extends JpaRepository<SecomNodeEntity, UUID
 
     Optional<SecomNodeEntity> findByMrn(String mrn);
 
+    List<SecomNodeEntity> findAllByMrnIn(Collection<String> mrns);
+
     default SecomNodeEntity findOrCreate(String mrn) {
         return findByMrn(mrn).orElseGet(() -> {
             SecomNodeEntity entity = new SecomNodeEntity();
@@ -36,6 +36,9 @@ public class BaleenSignatureProvider implements SecomSignatureProvider {
 
     private final MCPSecurityService pki;
 
+    /** Signatures of large payloads, such as a dataset published to many subscribers. */
+    private final PayloadSignatureCache signatures = new PayloadSignatureCache();
+
     /**
      * @param pki
      */
@@ -61,7 +64,7 @@ public class BaleenSignatureProvider implements SecomSignatureProvider {
 //          sign.initVerify(cert);
 //          sign.update(payload);
 //          System.out.println(sign.verify(signature));
-            return pki.sign(algorithm.getValue(), payload);
+            return signatures.sign(algorithm.getValue(), payload, pki::sign);
         } catch (GeneralSecurityException ex) {
             LOGGER.error("Failed to sign outgoing message", ex);
             throw new SecurityException(ex);
@@ -27,6 +27,7 @@ import java.security.Signature;
 import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
@@ -41,6 +42,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 /**
  * One stop stop for everything MCP security related.
  */
@@ -68,12 +71,16 @@ public class MCPSecurityService {
 
     private final KeyStore truststore;
 
+    /** The registry that signing times are recorded in. */
+    private final MeterRegistry registry;
+
     @Autowired
-    public MCPSecurityService(SecomConfigProperties config) throws Exception {
-        this(new MCPSecurityConfig(config));
+    public MCPSecurityService(SecomConfigProperties config, MeterRegistry registry) throws Exception {
+        this(new MCPSecurityConfig(config), registry);
     }
 
-    private MCPSecurityService(MCPSecurityConfig config) throws Exception {
+    private MCPSecurityService(MCPSecurityConfig config, MeterRegistry registry) throws Exception {
+        this.registry = requireNonNull(registry);
         this.keystore = loadKeyStore(config);
         this.truststore = loadTrustStore(config);
         this.config = requireNonNull(config);
@@ -128,12 +135,15 @@ public class MCPSecurityService {
     }
 
     public byte[] sign(String algorithm, byte[] payload) throws GeneralSecurityException {
+        long start = System.nanoTime();
         Signature sign = Signature.getInstance(algorithm);
         sign.initSign(PRIVATE_KEY);
         sign.update(payload);
 
         // Sign and return the signature
-        return sign.sign();
+        byte[] signature = sign.sign();
+        registry.timer("baleen.secom.sign", "algorithm", algorithm).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return signature;
     }
 
 //    public PrivateKey mcpServicePrivateKey() {
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.secom.security;
+
+import java.security.GeneralSecurityException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import dk.dma.baleen.service.ContentHash;
+
+/**
+ * Caches signatures of large payloads, so a dataset published to many subscribers is only signed once.
+ * <p>
+ * Signatures are first looked up by the identity of the payload array. The array is held weakly, so these entries live
+ * exactly as long as the publication holding the payload. If the same payload arrives in another array, signatures are
+ * looked up by a SHA-256 digest of the payload. This is considerably cheaper than the SHA3-384 hash and the ECDSA
+ * operation of a signature. Small payloads, such as envelope signature strings, are unique per message and never
+ * cached.
+ */
+final class PayloadSignatureCache {
+
+    /** Payloads smaller than this are never cached. */
+    static final int MIN_PAYLOAD_SIZE = 4096;
+
+    /** The maximum number of signatures cached by digest. */
+    static final int MAX_DIGEST_ENTRIES = 256;
+
+    /** Signatures by payload identity, byte arrays use identity for equals and hashCode. */
+    private final Map<byte[], CachedSignature> byIdentity = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /** Signatures by payload digest, least recently used are evicted. */
+    private final Map<String, CachedSignature> byDigest = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedSignature> eldest) {
+            return size() > MAX_DIGEST_ENTRIES;
+        }
+    });
+
+    /**
+     * Returns a signature of the specified payload, only calling the signer if the payload has not already been
+     * signed.
+     *
+     * @param algorithm
+     *            the signature algorithm
+     * @param payload
+     *            the payload to sign
+     * @param signer
+     *            signs the payload if no cached signature is available
+     * @return the signature
+     * @throws GeneralSecurityException
+     *             if the payload could not be signed
+     */
+    byte[] sign(String algorithm, byte[] payload, Signer signer) throws GeneralSecurityException {
+        if (payload.length < MIN_PAYLOAD_SIZE) {
+            return signer.sign(algorithm, payload);
+        }
+        CachedSignature c = byIdentity.get(payload);
+        if (c != null && c.algorithm().equals(algorithm)) {
+            return c.signature().clone();
+        }
+        String digest = ContentHash.of(payload);
+        c = byDigest.get(digest);
+        if (c == null || !c.algorithm().equals(algorithm)) {
+            c = new CachedSignature(algorithm, signer.sign(algorithm, payload));
+            byDigest.put(digest, c);
+        }
+        byIdentity.put(payload, c);
+        return c.signature().clone();
+    }
+
+    /** Signs a payload. */
+    interface Signer {
+        byte[] sign(String algorithm, byte[] payload) throws GeneralSecurityException;
+    }
+
+    private record CachedSignature(String algorithm, byte[] signature) {}
+}
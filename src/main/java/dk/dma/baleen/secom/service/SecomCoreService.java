@@ -23,11 +23,8 @@ import java.util.Optional;
 
 import org.grad.secom.core.models.CapabilityObject;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
-import dk.dma.baleen.secom.model.SecomNodeEntity;
-import dk.dma.baleen.secom.repository.SecomNodeRepository;
 import dk.dma.baleen.secom.spi.AuthenticatedMcpNode;
 
 /**
@@ -39,12 +36,12 @@ public class SecomCoreService {
     /** The capabilities of this node, created once. */
     final List<CapabilityObject> capabilities;
 
-    final SecomNodeRepository nodeRepository;
+    final SecomInteractionTracker interactionTracker;
 
     @Autowired
-    public SecomCoreService(S100DataProductManager productManager, SecomNodeRepository nodeRepository) {
+    public SecomCoreService(S100DataProductManager productManager, SecomInteractionTracker interactionTracker) {
         this.capabilities = productManager.allCapabilities();
-        this.nodeRepository = requireNonNull(nodeRepository);
+        this.interactionTracker = requireNonNull(interactionTracker);
     }
 
     /**
@@ -58,7 +55,8 @@ public class SecomCoreService {
     }
 
     /**
-     * Do we update last interaction here?
+     * Returns the last interaction with the node before the current request. The current request has already been
+     * recorded by {@link dk.dma.baleen.secom.controllers.MRNExtractorRequestFilter}.
      *
      * @param node
      *            the node to return last interaction time for
@@ -66,15 +64,7 @@ public class SecomCoreService {
      *
      * @see org.grad.secom.core.interfaces.PingSecomInterface
      */
-    @Nullable
     public Optional<Instant> lastInteractionTime(AuthenticatedMcpNode node) {
-        Optional<SecomNodeEntity> e = nodeRepository.findByMrn(node.mrn());
-        registerInteraction(node);
-        return e.map(SecomNodeEntity::getLastInteraction);
+        return interactionTracker.previousInteraction(node.mrn());
     }
-
-    /**
-     * Register an interaction with the remote node.
-     */
-    void registerInteraction(AuthenticatedMcpNode node) {}
 }
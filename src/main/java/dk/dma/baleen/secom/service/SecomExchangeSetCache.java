@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.secom.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import dk.dma.baleen.secom.util.S100ExchangeSetWriter;
+import dk.dma.baleen.service.ContentHash;
+import dk.dma.baleen.service.spi.DataSet;
+
+/**
+ * A disk cache of exchange sets.
+ * <p>
+ * Many clients request exchange sets for the same area and time, which end up containing the same datasets. An exchange
+ * set is cached under a fingerprint of the product specification, version, compression level and the uuid and content
+ * hash of every dataset it contains, in order. Different queries selecting the same datasets therefore share an entry,
+ * and an entry is never served once any of its datasets has changed, as the fingerprint then changes as well. Entries
+ * containing a changed dataset are also deleted by {@link #invalidate(UUID)} to reclaim the space.
+ * <p>
+ * Exchange sets are written directly to a file, and read back into memory when served, as SECOM returns the exchange
+ * set as a byte array. The total size of the cached files is bounded, evicting the least recently used first. The files are kept in a dedicated {@value #SUBDIRECTORY}
+ * subdirectory of the configured directory. Cached files left in it by a previous run are deleted at startup, as the
+ * index of the cache is only kept in memory. Other files are never touched.
+ */
+@Service
+public class SecomExchangeSetCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SecomExchangeSetCache.class);
+
+    /** The subdirectory of the configured directory the cached files are kept in. */
+    static final String SUBDIRECTORY = "exchange-set-cache";
+
+    /** The names of the files written by the cache, a fingerprint followed by the suffix of a temporary or cached file. */
+    private static final Pattern CACHE_FILE = Pattern.compile("[0-9a-f]{64}\\d*\\.(zip|tmp)");
+
+    /** The directory of the cached files. */
+    private final Path directory;
+
+    /** The maximum total size of the cached files in bytes. */
+    private final long maxBytes;
+
+    /** The size of each cached file by fingerprint, in access order. Guarded by itself. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The fingerprints of the cached exchange sets containing a dataset. Guarded by entries. */
+    private final Map<UUID, Set<String>> byDataset = new HashMap<>();
+
+    /** The total size of the cached files, guarded by entries. */
+    private long bytes;
+
+    @Autowired
+    public SecomExchangeSetCache(@Value("${secom.exchange-set.cache-dir:${java.io.tmpdir}/baleen}") String directory,
+            @Value("${secom.exchange-set.cache-max-size:512MB}") DataSize maxSize) throws IOException {
+        this.directory = Path.of(directory).resolve(SUBDIRECTORY);
+        this.maxBytes = maxSize.toBytes();
+        Files.createDirectories(this.directory);
+        try (Stream<Path> files = Files.list(this.directory)) {
+            for (Path p : files.toList()) {
+                if (Files.isRegularFile(p) && CACHE_FILE.matcher(p.getFileName().toString()).matches()) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns an exchange set containing the specified datasets, from the cache if possible. Exchange sets with datasets
+     * without a content hash are not cached.
+     *
+     * @param productSpecification
+     *            the product specification of the datasets, for example S-124
+     * @param productVersion
+     *            the version of the product specification, or null if not known
+     * @param datasets
+     *            the datasets to include
+     * @param content
+     *            returns the content of a dataset, only called if the exchange set is not cached
+     * @param level
+     *            the compression level, either {@link dk.dma.baleen.secom.util.ZipDirectory#STORED} or a deflate level
+     * @param maxSize
+     *            the maximum size of the exchange set in bytes
+     * @return the exchange set
+     * @throws IOException
+     *             if the exchange set could not be created
+     * @throws dk.dma.baleen.secom.util.ZipDirectory.ZipFileSizeExceeded
+     *             if the exchange set would exceed the maximum size
+     */
+    public byte[] get(String productSpecification, String productVersion, List<? extends DataSet> datasets, Function<? super DataSet, byte[]> content,
+            int level, long maxSize) throws IOException {
+        S100ExchangeSetWriter writer = new S100ExchangeSetWriter(productSpecification, productVersion);
+        String fingerprint = fingerprint(productSpecification, productVersion, datasets, level);
+        if (fingerprint == null || maxBytes <= 0) {
+            return writer.toByteArray(datasets, content, level, maxSize);
+        }
+
+        Path file = directory.resolve(fingerprint + ".zip");
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(fingerprint);
+        }
+        if (entry != null && entry.size() <= maxSize) {
+            try {
+                return read(file);
+            } catch (NoSuchFileException e) {
+                // Evicted in the meantime, create it again
+            }
+        }
+
+        // Write to a temporary file first, so a partially written exchange set is never read
+        Path tmp = Files.createTempFile(directory, fingerprint, ".tmp");
+        long size;
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                size = writer.write(out, datasets, content, level, maxSize);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        byte[] result = read(file);
+        add(fingerprint, new Entry(size, datasets.stream().map(DataSet::uuid).toList()));
+        return result;
+    }
+
+    /**
+     * Deletes all cached exchange sets containing the specified dataset.
+     *
+     * @param uuid
+     *            the uuid of the dataset
+     */
+    public void invalidate(UUID uuid) {
+        List<String> removed = new ArrayList<>();
+        synchronized (entries) {
+            Set<String> fingerprints = byDataset.remove(uuid);
+            if (fingerprints != null) {
+                for (String f : fingerprints) {
+                    if (remove(f)) {
+                        removed.add(f);
+                    }
+                }
+            }
+        }
+        delete(removed);
+    }
+
+    /** Deletes all cached exchange sets. */
+    public void clear() {
+        List<String> removed;
+        synchronized (entries) {
+            removed = new ArrayList<>(entries.keySet());
+            entries.clear();
+            byDataset.clear();
+            bytes = 0;
+        }
+        delete(removed);
+    }
+
+    private void add(String fingerprint, Entry entry) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (entries) {
+            Entry previous = entries.put(fingerprint, entry);
+            bytes += entry.size() - (previous == null ? 0 : previous.size());
+            for (UUID uuid : entry.datasets()) {
+                byDataset.computeIfAbsent(uuid, k -> new HashSet<>()).add(fingerprint);
+            }
+            // The new entry is the most recently used, so it is only evicted if it exceeds the maximum size on its own
+            while (bytes > maxBytes && !entries.isEmpty()) {
+                String eldest = entries.keySet().iterator().next();
+                remove(eldest);
+                evicted.add(eldest);
+            }
+        }
+        delete(evicted);
+    }
+
+    /** Removes an entry, must be called with the lock held. */
+    private boolean remove(String fingerprint) {
+        if (entries.containsKey(fingerprint)) {
+            Entry e = entries.remove(fingerprint);
+            bytes -= e.size();
+            for (UUID uuid : e.datasets()) {
+                Set<String> s = byDataset.get(uuid);
+                if (s != null && s.remove(fingerprint) && s.isEmpty()) {
+                    byDataset.remove(uuid);
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void delete(List<String> fingerprints) {
+        for (String f : fingerprints) {
+            try {
+                Files.deleteIfExists(directory.resolve(f + ".zip"));
+            } catch (IOException e) {
+                LOGGER.warn("Could not delete cached exchange set {}", f, e);
+            }
+        }
+    }
+
+    /** Returns the fingerprint of an exchange set, or null if any dataset has no content hash. */
+    private static String fingerprint(String productSpecification, String productVersion, List<? extends DataSet> datasets, int level) {
+        StringBuilder sb = new StringBuilder(64 + datasets.size() * 104);
+        sb.append(productSpecification).append('|').append(productVersion).append('|').append(level);
+        for (DataSet ds : datasets) {
+            String hash = ds.contentHash();
+            if (hash == null) {
+                return null;
+            }
+            sb.append('|').append(ds.uuid()).append(':').append(hash);
+        }
+        return ContentHash.of(sb.toString());
+    }
+
+    /**
+     * Reads a cached exchange set. The file is not memory mapped, as the content is copied to a byte array anyway, and a
+     * mapping would prevent the file from being deleted on some platforms until it was garbage collected.
+     */
+    private static byte[] read(Path file) throws IOException {
+        return Files.readAllBytes(file);
+    }
+
+    /** A cached exchange set. */
+    private record Entry(long size, List<UUID> datasets) {}
+}
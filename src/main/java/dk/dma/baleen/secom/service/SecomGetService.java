@@ -49,13 +49,7 @@ public class SecomGetService {
 
     public Page<? extends DataSet> get(AuthenticatedMcpNode remoteNode, UUID dataReference, SECOM_DataProductType dataProductType, String productVersion, String geometry,
             String unlocode, Geometry jtsGeometry, LocalDateTime validFrom, LocalDateTime validTo, Integer page, Integer pageSize) {
-        S100DataProductType pt = switch (dataProductType) {
-        case S124 -> S100DataProductType.S124;
-        default -> throw new SecomNotImplementedException(dataProductType + " not supported, supported products: " + productManager.supportedProducts());
-        };
-
-        S100DataProductService dataProduct = productManager.find(pt)
-                .orElseThrow(() -> new SecomNotImplementedException(dataProductType + " not supported, supported products: " + productManager.supportedProducts()));
+        S100DataProductService dataProduct = dataProduct(dataProductType);
 
         Pageable pageable = Pageable.unpaged();
         if (page != null) {
@@ -65,4 +59,27 @@ public class SecomGetService {
 
         return dataProduct.findAll(dataReference, jtsGeometry, validFrom, validTo, pageable);
     }
+
+    /**
+     * Loads the content of a dataset returned by {@link #get}, which is detached from the transaction it was found in.
+     *
+     * @param dataProductType
+     *            the data product type of the dataset
+     * @param dataset
+     *            the dataset
+     * @return the content of the dataset
+     */
+    public byte[] loadContent(SECOM_DataProductType dataProductType, DataSet dataset) {
+        return dataProduct(dataProductType).loadContent(dataset);
+    }
+
+    private S100DataProductService dataProduct(SECOM_DataProductType dataProductType) {
+        S100DataProductType pt = switch (dataProductType) {
+        case S124 -> S100DataProductType.S124;
+        default -> throw new SecomNotImplementedException(dataProductType + " not supported, supported products: " + productManager.supportedProducts());
+        };
+
+        return productManager.find(pt)
+                .orElseThrow(() -> new SecomNotImplementedException(dataProductType + " not supported, supported products: " + productManager.supportedProducts()));
+    }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.secom.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import dk.dma.baleen.secom.model.SecomNodeEntity;
+import dk.dma.baleen.secom.repository.SecomNodeRepository;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Keeps track of when we last interacted with remote SECOM nodes.
+ * <p>
+ * Every authenticated SECOM request is recorded in memory only, so recording an interaction never touches the
+ * database. Interactions are written to {@link SecomNodeEntity#getLastInteraction()} in batches by a periodic flush,
+ * and once more when the application stops. Interactions recorded since the last flush are lost if the application
+ * crashes, which is acceptable for what is only used to answer pings.
+ */
+@Service
+public class SecomInteractionTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecomInteractionTracker.class);
+
+    @Autowired
+    SecomNodeRepository nodeRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    /** The maximum number of nodes updated per transaction when flushing. */
+    @Value("${secom.interaction.batch-size:500}")
+    int batchSize;
+
+    /** All nodes we have interacted with since startup, by MRN. */
+    private final ConcurrentHashMap<String, Node> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Records an interaction with the specified node, at the current time.
+     *
+     * @param mrn
+     *            the mrn of the node
+     */
+    public void record(String mrn) {
+        Node node = nodes.get(mrn);
+        if (node == null) {
+            node = nodes.computeIfAbsent(mrn, Node::new);
+        }
+        node.record(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the time of the interaction with the specified node that preceded the most recently recorded one. When
+     * called while handling a request, which has already been recorded, this is the previous interaction with the node.
+     * <p>
+     * The database is only consulted the first time a node is seen after startup.
+     *
+     * @param mrn
+     *            the mrn of the node
+     * @return the previous interaction with the node, or empty if there has been none
+     */
+    public Optional<Instant> previousInteraction(String mrn) {
+        Node node = nodes.get(mrn);
+        if (node == null) {
+            // Not recorded since startup, so the latest stored interaction is the previous one
+            return nodeRepository.findByMrn(mrn).map(SecomNodeEntity::getLastInteraction);
+        }
+        Stamp s = node.stamp.get();
+        if (s.previous != 0) {
+            return Optional.of(Instant.ofEpochMilli(s.previous));
+        }
+        Instant stored = node.stored;
+        if (stored == null) {
+            stored = node.stored = nodeRepository.findByMrn(mrn).map(SecomNodeEntity::getLastInteraction).orElse(Instant.EPOCH);
+        }
+        // Ignore an interaction that was written by a flush after the latest interaction was recorded
+        return stored.equals(Instant.EPOCH) || stored.toEpochMilli() >= s.latest ? Optional.empty() : Optional.of(stored);
+    }
+
+    /** Writes interactions that have been recorded since the last flush to the database. */
+    @Scheduled(fixedDelayString = "${secom.interaction.flush-interval:PT30S}")
+    public synchronized void flush() {
+        Map<String, Long> pending = new HashMap<>();
+        for (Node node : nodes.values()) {
+            long latest = node.stamp.get().latest;
+            if (latest > node.flushed) {
+                pending.put(node.mrn, latest);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<String> mrns = new ArrayList<>(pending.keySet());
+        TransactionTemplate tt = new TransactionTemplate(transactionManager);
+        for (int i = 0; i < mrns.size(); i += batchSize) {
+            List<String> batch = mrns.subList(i, Math.min(mrns.size(), i + batchSize));
+            try {
+                tt.executeWithoutResult(status -> store(batch, pending));
+            } catch (RuntimeException e) {
+                // The nodes are still pending, and will be retried on the next flush
+                logger.error("Could not store interactions for {} nodes", batch.size(), e);
+                continue;
+            }
+            for (String mrn : batch) {
+                nodes.get(mrn).flushed = pending.get(mrn);
+            }
+        }
+        logger.debug("Flushed interactions for {} nodes", pending.size());
+    }
+
+    private void store(List<String> batch, Map<String, Long> pending) {
+        Map<String, SecomNodeEntity> existing = new HashMap<>();
+        for (SecomNodeEntity e : nodeRepository.findAllByMrnIn(batch)) {
+            existing.put(e.getMrn(), e);
+        }
+        List<SecomNodeEntity> updated = new ArrayList<>(batch.size());
+        for (String mrn : batch) {
+            Instant latest = Instant.ofEpochMilli(pending.get(mrn));
+            SecomNodeEntity e = existing.get(mrn);
+            if (e == null) {
+                e = new SecomNodeEntity();
+                e.setMrn(mrn);
+            } else if (e.getLastInteraction() != null && !e.getLastInteraction().isBefore(latest)) {
+                continue;
+            }
+            e.setLastInteraction(latest);
+            updated.add(e);
+        }
+        nodeRepository.saveAll(updated);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flush();
+    }
+
+    /** The latest and the previous interaction with a node, in epoch milliseconds, 0 if none. */
+    private record Stamp(long latest, long previous) {}
+
+    /** A node we have interacted with. */
+    private static final class Node {
+
+        /** The mrn of the node. */
+        final String mrn;
+
+        final AtomicReference<Stamp> stamp = new AtomicReference<>(new Stamp(0, 0));
+
+        /** The latest interaction that has been written to the database. */
+        volatile long flushed;
+
+        /** The last interaction stored in the database at startup, lazily loaded, {@link Instant#EPOCH} if none. */
+        volatile Instant stored;
+
+        Node(String mrn) {
+            this.mrn = mrn;
+        }
+
+        void record(long now) {
+            for (;;) {
+                Stamp s = stamp.get();
+                if (stamp.compareAndSet(s, new Stamp(now, s.latest))) {
+                    return;
+                }
+            }
+        }
+    }
+}
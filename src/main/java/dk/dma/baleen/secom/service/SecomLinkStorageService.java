@@ -96,7 +96,7 @@ public class SecomLinkStorageService {
         }
 
         // Check that the link is still valid
-        if (upload.getExpiresAt().isAfter(Instant.now())) {
+        if (upload.getExpiresAt().isBefore(Instant.now())) {
             throw new SecomNotFoundException("A link with the specified UUID has expired, please request a new one, UUID=" + transactionIdentifier);
         }
 
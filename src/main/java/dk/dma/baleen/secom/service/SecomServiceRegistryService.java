@@ -19,8 +19,15 @@ package dk.dma.baleen.secom.service;
 import static java.util.Objects.requireNonNull;
 
 import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.grad.secom.core.exceptions.SecomGenericException;
@@ -39,10 +46,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import dk.dma.baleen.secom.util.BaleenSecomClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
 
 /**
- * Resolves a MRN to a a SecomClient
+ * Resolves a MRN to a a SecomClient. Resolutions and clients are cached.
  */
 @Service
 public final class SecomServiceRegistryService {
@@ -58,10 +67,43 @@ public final class SecomServiceRegistryService {
     /** A SECOM client to the service registry. */
     private BaleenSecomClient serviceRegistryClient;
 
+    /** How long a resolved MRN is cached. */
+    @Value("${secom.resolver.ttl:PT15M}")
+    Duration ttl = Duration.ofMinutes(15);
+
+    /** How old a resolution can be, before it is refreshed in the background. */
+    @Value("${secom.resolver.refresh-after:PT10M}")
+    Duration refreshAfter = Duration.ofMinutes(10);
+
+    /** How long an MRN that is not registered is cached. */
+    @Value("${secom.resolver.negative-ttl:PT1M}")
+    Duration negativeTtl = Duration.ofMinutes(1);
+
+    /** Cached resolutions by MRN. */
+    private final ConcurrentHashMap<String, Resolution> resolutions = new ConcurrentHashMap<>();
+
+    /** Lookups in progress by MRN. */
+    private final ConcurrentHashMap<String, CompletableFuture<Resolution>> lookups = new ConcurrentHashMap<>();
+
+    /** A single long-lived client per endpoint. */
+    private final ConcurrentHashMap<URI, BaleenSecomClient> clients = new ConcurrentHashMap<>();
+
+    /** Resolutions answered from the cache, including expired resolutions used because the registry failed. */
+    private final Counter hits;
+
+    /** Resolutions that had to wait for the service registry. */
+    private final Counter misses;
+
+    private final MeterRegistry registry;
+
     @Autowired
-    SecomServiceRegistryService(@Value("${secom.service-registry.url:}") String serviceRegistryUrl, SecomConfigProperties secomConfig) {
+    SecomServiceRegistryService(@Value("${secom.service-registry.url:}") String serviceRegistryUrl, SecomConfigProperties secomConfig,
+            MeterRegistry registry) {
         this.serviceRegistryUrl = serviceRegistryUrl;
         this.secomConfig = requireNonNull(secomConfig);
+        this.registry = requireNonNull(registry);
+        this.hits = registry.counter("baleen.secom.resolver.requests", "result", "hit");
+        this.misses = registry.counter("baleen.secom.resolver.requests", "result", "miss");
     }
 
     @PostConstruct
@@ -78,7 +120,87 @@ public final class SecomServiceRegistryService {
         serviceRegistryClient = new BaleenSecomClient(uri, scp);
     }
 
+    /**
+     * Resolves the specified MRN to a SECOM client.
+     * <p>
+     * Resolutions are cached for {@code secom.resolver.ttl}, and refreshed in the background once they are older than
+     * {@code secom.resolver.refresh-after}. MRNs that are not registered are cached for {@code secom.resolver.negative-ttl}.
+     * If the service registry cannot be reached, an expired resolution is used instead. Clients are shared by all MRNs
+     * resolving to the same endpoint, so connections to the endpoint are reused.
+     *
+     * @param mrn
+     *            the MRN to resolve
+     * @return a client for the endpoint of the MRN
+     * @throws SecomNotFoundException
+     *             if the MRN is not registered in the service registry
+     */
     public BaleenSecomClient resolveMRN(String mrn) {
+        Instant now = Instant.now();
+        Resolution r = resolutions.get(mrn);
+        if (r == null || r.expiresAt().isBefore(now)) {
+            misses.increment();
+            try {
+                r = lookup(mrn).join();
+            } catch (CompletionException e) {
+                if (r != null && r.endpoint() != null) {
+                    logger.warn("Could not resolve MRN {}, using expired endpoint {}", mrn, r.endpoint(), e.getCause());
+                } else if (e.getCause() instanceof RuntimeException re) {
+                    throw re;
+                } else {
+                    throw e;
+                }
+            }
+        } else {
+            hits.increment();
+            if (r.endpoint() != null && r.resolvedAt().plus(refreshAfter).isBefore(now)) {
+                lookup(mrn); // Refresh in the background, using the current resolution for now
+            }
+        }
+        if (r.endpoint() == null) {
+            throw new SecomNotFoundException(r.failure());
+        }
+        return client(r.endpoint());
+    }
+
+    /**
+     * Marks any cached resolution of the specified MRN for refresh, for example after the endpoint of the MRN could not
+     * be reached. The MRN is looked up again in the background on the next resolution, while the cached endpoint is used
+     * until the lookup completes. So the cached endpoint is still used if the service registry cannot be reached.
+     *
+     * @param mrn
+     *            the MRN to refresh
+     */
+    public void refresh(String mrn) {
+        resolutions.computeIfPresent(mrn, (k, r) -> r.endpoint() == null ? r : new Resolution(r.endpoint(), null, Instant.EPOCH, r.expiresAt()));
+    }
+
+    /** Looks up the specified MRN, concurrent lookups of the same MRN are coalesced. */
+    private CompletableFuture<Resolution> lookup(String mrn) {
+        CompletableFuture<Resolution> f = new CompletableFuture<>();
+        CompletableFuture<Resolution> existing = lookups.putIfAbsent(mrn, f);
+        if (existing != null) {
+            return existing;
+        }
+        Thread.ofVirtual().start(() -> {
+            long start = System.nanoTime();
+            try {
+                Resolution r = search(mrn);
+                resolutions.put(mrn, r);
+                registry.timer("baleen.secom.resolver.lookups", "result", r.endpoint() == null ? "not_found" : "found").record(System.nanoTime() - start,
+                        TimeUnit.NANOSECONDS);
+                f.complete(r);
+            } catch (Throwable t) {
+                registry.timer("baleen.secom.resolver.lookups", "result", "error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                f.completeExceptionally(t);
+            } finally {
+                lookups.remove(mrn, f);
+            }
+        });
+        return f;
+    }
+
+    /** Searches the service registry for the specified MRN. */
+    private Resolution search(String mrn) {
         // Can only be null after shutdown. Otherwise startup would have failed.s
         if (serviceRegistryClient == null) {
             throw new SecomValidationException("Application has been shutdown");
@@ -93,20 +215,48 @@ public final class SecomServiceRegistryService {
         filter.setQuery(params);
 
         // Get latest hosts
-        SearchObjectResult result = serviceRegistryClient.searchService(filter, 0, Integer.MAX_VALUE).map(ResponseSearchObject::getSearchServiceResult)
-                .orElse(List.of()).stream().max(Comparator.comparing(SearchObjectResult::getVersion))
-                .orElseThrow(() -> new SecomNotFoundException(String.format("The MRN %s was not registered as a service with %s", mrn, serviceRegistryClient)));
+        Optional<SearchObjectResult> result = serviceRegistryClient.searchService(filter, 0, Integer.MAX_VALUE)
+                .map(ResponseSearchObject::getSearchServiceResult).orElse(List.of()).stream().max(Comparator.comparing(SearchObjectResult::getVersion));
 
-        logger.info("Resolved MRN as: {}", result.getEndpointUri());
+        Instant now = Instant.now();
+        if (result.isEmpty()) {
+            String message = String.format("The MRN %s was not registered as a service with %s", mrn, serviceRegistryUrl);
+            logger.info(message);
+            return new Resolution(null, message, now, now.plus(negativeTtl));
+        }
 
-        // We got a result from the service registry. Create and return a SecomClients
+        logger.info("Resolved MRN as: {}", result.get().getEndpointUri());
         try {
-            URI uri = URI.create(result.getEndpointUri());
-            return new BaleenSecomClient(uri, secomConfig);
-        } catch (Exception e) {
-            logger.error("SecomClient could not be created: {}", e.getMessage(), e);
-            throw new SecomGenericException("Failed to secom client: " + e.getMessage());
+            return new Resolution(URI.create(result.get().getEndpointUri()), null, now, now.plus(ttl));
+        } catch (IllegalArgumentException e) {
+            throw new SecomGenericException("Invalid endpoint registered for " + mrn + ": " + e.getMessage());
         }
     }
 
-}
\ No newline at end of file
+    /** Returns the shared client for the specified endpoint, creating it if needed. */
+    private BaleenSecomClient client(URI endpoint) {
+        return clients.computeIfAbsent(endpoint, uri -> {
+            // We got a result from the service registry. Create and return a SecomClients
+            try {
+                return new BaleenSecomClient(uri, secomConfig);
+            } catch (Exception e) {
+                logger.error("SecomClient could not be created: {}", e.getMessage(), e);
+                throw new SecomGenericException("Failed to secom client: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * A cached resolution of an MRN.
+     *
+     * @param endpoint
+     *            the endpoint of the MRN, or null if the MRN is not registered
+     * @param failure
+     *            why the MRN could not be resolved, or null if it was resolved
+     * @param resolvedAt
+     *            when the MRN was resolved
+     * @param expiresAt
+     *            when the resolution expires
+     */
+    private record Resolution(URI endpoint, String failure, Instant resolvedAt, Instant expiresAt) {}
+}
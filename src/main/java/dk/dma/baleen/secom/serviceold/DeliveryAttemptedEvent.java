@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.secom.serviceold;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import org.grad.secom.core.models.enums.SECOM_DataProductType;
+
+import dk.dma.baleen.secom.model.other.PublicationRecipiantEntity.DeliveryStatus;
+
+/**
+ * An application event published by {@link SecomDeliveryService} every time it has attempted to deliver a publication
+ * to a subscriber.
+ *
+ * @param transactionIdentifier
+ *            the transaction identifier of the publication
+ * @param mrn
+ *            the mrn of the subscriber
+ * @param dataProductType
+ *            the data product delivered
+ * @param status
+ *            the status of the delivery after the attempt
+ * @param responseCode
+ *            the HTTP response code, or 0 if no response was received
+ * @param errorMessage
+ *            why the attempt failed, or null if it succeeded
+ * @param time
+ *            the time of the attempt
+ */
+public record DeliveryAttemptedEvent(UUID transactionIdentifier, String mrn, SECOM_DataProductType dataProductType, DeliveryStatus status,
+        int responseCode, String errorMessage, Instant time) {}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.secom.serviceold;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.grad.secom.core.models.EnvelopeUploadObject;
+import org.grad.secom.core.models.UploadObject;
+import org.grad.secom.core.models.enums.AckRequestEnum;
+import org.grad.secom.core.models.enums.ContainerTypeEnum;
+import org.grad.secom.core.models.enums.SECOM_DataProductType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import dk.dma.baleen.secom.controllers.SecomNode;
+import dk.dma.baleen.secom.model.other.PublicationEntity;
+import dk.dma.baleen.secom.model.other.PublicationRecipiantAttemptedDeliveryEntity;
+import dk.dma.baleen.secom.model.other.PublicationRecipiantEntity;
+import dk.dma.baleen.secom.model.other.PublicationRecipiantEntity.DeliveryStatus;
+import dk.dma.baleen.secom.repository.PublicationRecipiantAttemptedDeliveryEntityRepository;
+import dk.dma.baleen.secom.repository.PublicationRecipiantEntityRepository;
+import dk.dma.baleen.secom.serviceold.SecomOutboxService.SecomOperationType;
+import dk.dma.baleen.service.BaleenMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Delivers pending publications to subscribers.
+ * <p>
+ * Pending deliveries are claimed in batches from the database, grouped by subscriber, and delivered on virtual
+ * threads. Deliveries to the same subscriber are made one at a time in the order they were published, so a slow or
+ * unavailable subscriber only delays its own deliveries. Failed deliveries are retried with exponential backoff until
+ * the maximum number of attempts has been made, after which they are marked as failed.
+ */
+@Service
+public class SecomDeliveryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecomDeliveryService.class);
+
+    @Autowired
+    SecomOutboxService outbox;
+
+    @Autowired
+    PublicationRecipiantEntityRepository recipientRepository;
+
+    @Autowired
+    PublicationRecipiantAttemptedDeliveryEntityRepository attemptRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    /** The maximum number of deliveries claimed per poll. */
+    @Value("${secom.delivery.batch-size:500}")
+    int batchSize;
+
+    /** The maximum number of subscribers that are delivered to concurrently. */
+    @Value("${secom.delivery.concurrency:16}")
+    int concurrency;
+
+    /** The maximum number of attempts made for a single delivery before giving up. */
+    @Value("${secom.delivery.max-attempts:10}")
+    int maxAttempts;
+
+    /** The delay before the first retry, doubled for every subsequent retry. */
+    @Value("${secom.delivery.initial-backoff:PT10S}")
+    Duration initialBackoff;
+
+    /** The maximum delay between two retries. */
+    @Value("${secom.delivery.max-backoff:PT1H}")
+    Duration maxBackoff;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * The payloads of recent publications. All deliveries of a publication share the same payload array, across polls,
+     * so it is only signed once (see the signature provider) no matter how many subscribers it is delivered to.
+     */
+    private final Map<UUID, byte[]> payloads = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, byte[]> eldest) {
+            return size() > 64;
+        }
+    });
+
+    private volatile Semaphore permits;
+
+    /** Subscribers that are currently being delivered to, and which are skipped when claiming deliveries. */
+    private final Set<UUID> inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Deliveries that were being processed when the application stopped are made pending again. As we do not know
+     * whether they were delivered, they might be delivered twice.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        Integer reset = new TransactionTemplate(transactionManager)
+                .execute(status -> recipientRepository.updateStatus(DeliveryStatus.PROCESSING, DeliveryStatus.PENDING));
+        if (reset != null && reset > 0) {
+            logger.info("Reset {} interrupted deliveries to pending", reset);
+        }
+        wakeUp();
+    }
+
+    /** Schedules an immediate poll for pending deliveries, for example after new publications have been committed. */
+    public void wakeUp() {
+        if (!executor.isShutdown()) {
+            executor.execute(this::poll);
+        }
+    }
+
+    /** Claims pending deliveries that are due, and delivers them asynchronously. */
+    @Scheduled(fixedDelayString = "${secom.delivery.poll-interval:5000}")
+    public synchronized void poll() {
+        Semaphore p = permits;
+        if (p == null) {
+            permits = p = new Semaphore(concurrency);
+        }
+        Map<UUID, List<Delivery>> bySubscriber;
+        try {
+            bySubscriber = new TransactionTemplate(transactionManager).execute(status -> claim());
+        } catch (RuntimeException e) {
+            logger.error("Could not claim pending deliveries", e);
+            return;
+        }
+        if (bySubscriber.isEmpty()) {
+            return;
+        }
+        logger.debug("Claimed deliveries for {} subscribers", bySubscriber.size());
+        Semaphore sp = p;
+        for (Map.Entry<UUID, List<Delivery>> e : bySubscriber.entrySet()) {
+            UUID subscriptionId = e.getKey();
+            inFlight.add(subscriptionId);
+            executor.execute(() -> {
+                try {
+                    sp.acquire();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    inFlight.remove(subscriptionId);
+                    return; // Shutting down, the deliveries are reset on next startup
+                }
+                try {
+                    deliverAll(e.getValue());
+                } finally {
+                    sp.release();
+                    inFlight.remove(subscriptionId);
+                }
+            });
+        }
+    }
+
+    /**
+     * Claims pending deliveries by marking them as processing. Must be called within a transaction.
+     * <p>
+     * Subscribers that are still being delivered to, or that have earlier deliveries waiting for a retry, are skipped.
+     * Their deliveries are claimed by a later poll, once the earlier deliveries have been made.
+     */
+    private Map<UUID, List<Delivery>> claim() {
+        List<PublicationRecipiantEntity> ready = recipientRepository.findReadyForRetry(DeliveryStatus.PENDING, DeliveryStatus.PROCESSING,
+                Instant.now(), PageRequest.of(0, batchSize));
+        Map<UUID, List<Delivery>> result = new LinkedHashMap<>();
+        for (PublicationRecipiantEntity r : ready) {
+            if (inFlight.contains(r.getSubscriptionId())) {
+                continue;
+            }
+            r.setStatus(DeliveryStatus.PROCESSING);
+            PublicationEntity p = r.getPublishedDataSet();
+            result.computeIfAbsent(r.getSubscriptionId(), k -> new ArrayList<>())
+                    .add(new Delivery(r.getId(), r.getSubscription().getNode().getMrn(), p.getTransactionIdentifier(), p.getDataProductType(),
+                            p.getContainerType(), payloads.computeIfAbsent(p.getId(), id -> p.getEnvelopeUploadObject())));
+        }
+        return result;
+    }
+
+    /** Delivers to a single subscriber. If a delivery fails, the remaining deliveries are postponed with it. */
+    private void deliverAll(List<Delivery> deliveries) {
+        for (int i = 0; i < deliveries.size(); i++) {
+            Delivery d = deliveries.get(i);
+            Instant attemptTime = Instant.now();
+            long start = System.nanoTime();
+            try {
+                outbox.sendTo(new SecomNode(d.mrn()), SecomOperationType.UPLOAD, d.toUploadObject());
+                deliveryTimer(d, "success").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                record(d, attemptTime, null, 200);
+            } catch (RuntimeException e) {
+                deliveryTimer(d, "failure").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                int responseCode = e instanceof WebClientResponseException we ? we.getStatusCode().value() : 0;
+                logger.warn("Delivery of publication {} to {} failed: {}", d.transactionIdentifier(), d.mrn(), e.getMessage());
+                Instant nextRetryAt = record(d, attemptTime, e, responseCode);
+                postpone(deliveries.subList(i + 1, deliveries.size()), nextRetryAt);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the timer of deliveries of the product to a single subscriber. Not tagged by subscriber, as the number of
+     * subscribers is unbounded.
+     */
+    private Timer deliveryTimer(Delivery d, String result) {
+        return meterRegistry.timer("baleen.secom.delivery", Tags.of(BaleenMetrics.PRODUCT, String.valueOf(d.dataProductType()), "result", result));
+    }
+
+    /** Records an attempted delivery, returning when the delivery should be retried. */
+    private Instant record(Delivery d, Instant attemptTime, Exception failure, int responseCode) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            PublicationRecipiantEntity r = recipientRepository.findById(d.recipientId()).orElse(null);
+            if (r == null) {
+                return attemptTime; // The subscription has been removed while delivering
+            }
+            PublicationRecipiantAttemptedDeliveryEntity a = new PublicationRecipiantAttemptedDeliveryEntity();
+            a.setMessage(r);
+            a.setAttemptTime(attemptTime);
+            a.setSuccess(failure == null);
+            a.setResponseCode(responseCode);
+            if (failure == null) {
+                r.setStatus(DeliveryStatus.PROCESSED);
+            } else {
+                String msg = String.valueOf(failure.getMessage());
+                a.setErrorMessage(msg.length() > 255 ? msg.substring(0, 255) : msg);
+                r.incrementRetryCount();
+                if (r.getRetryCount() >= maxAttempts) {
+                    logger.error("Giving up delivery of publication {} to {} after {} attempts", d.transactionIdentifier(), d.mrn(), r.getRetryCount());
+                    r.setStatus(DeliveryStatus.FAILED);
+                } else {
+                    r.setStatus(DeliveryStatus.PENDING);
+                    r.setNextRetryAt(attemptTime.plus(backoff(r.getRetryCount())));
+                }
+            }
+            attemptRepository.save(a);
+            eventPublisher.publishEvent(new DeliveryAttemptedEvent(d.transactionIdentifier(), d.mrn(), d.dataProductType(), r.getStatus(),
+                    responseCode, a.getErrorMessage(), attemptTime));
+            return r.getNextRetryAt();
+        });
+    }
+
+    /** Makes the specified deliveries pending again, without counting it as an attempt. */
+    private void postpone(List<Delivery> deliveries, Instant nextRetryAt) {
+        if (deliveries.isEmpty()) {
+            return;
+        }
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            for (PublicationRecipiantEntity r : recipientRepository.findAllById(deliveries.stream().map(Delivery::recipientId).toList())) {
+                r.setStatus(DeliveryStatus.PENDING);
+                r.setNextRetryAt(nextRetryAt);
+            }
+        });
+    }
+
+    /** Returns the delay before the specified retry. */
+    Duration backoff(int retryCount) {
+        Duration d = initialBackoff.multipliedBy(1L << Math.min(retryCount - 1, 20));
+        return d.compareTo(maxBackoff) > 0 ? maxBackoff : d;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /** A claimed delivery, holding everything needed to deliver it outside of a transaction. */
+    private record Delivery(Long recipientId, String mrn, UUID transactionIdentifier, SECOM_DataProductType dataProductType,
+            ContainerTypeEnum containerType, byte[] data) {
+
+        UploadObject toUploadObject() {
+            EnvelopeUploadObject envelope = new EnvelopeUploadObject();
+            envelope.setDataProductType(dataProductType);
+            envelope.setFromSubscription(true);
+            envelope.setAckRequest(AckRequestEnum.DELIVERED_ACK_REQUESTED);
+            envelope.setTransactionIdentifier(transactionIdentifier);
+            envelope.setContainerType(containerType);
+            envelope.setData(data);
+
+            UploadObject uploadObject = new UploadObject();
+            uploadObject.setEnvelope(envelope);
+            return uploadObject;
+        }
+    }
+}
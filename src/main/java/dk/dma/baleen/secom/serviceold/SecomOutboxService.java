@@ -15,6 +15,10 @@
  */
 package dk.dma.baleen.secom.serviceold;
 
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+
 import org.grad.secom.core.models.SubscriptionNotificationObject;
 import org.grad.secom.core.models.UploadObject;
 import org.slf4j.Logger;
@@ -40,7 +44,28 @@ class SecomOutboxService {
 
     void sendTo(AuthenticatedMcpNode node, SecomOperationType operation, Object message) {
         BaleenSecomClient client = serviceRegistry.resolveMRN(node.mrn());
-        operation.sendTo(message, client);
+        try {
+            operation.sendTo(message, client);
+        } catch (RuntimeException e) {
+            if (isConnectionFailure(e)) {
+                // The node might have moved, so resolve it again next time
+                serviceRegistry.refresh(node.mrn());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether the specified exception was caused by the endpoint not being reachable, as opposed to the
+     * endpoint answering with an error.
+     */
+    static boolean isConnectionFailure(Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException || t instanceof NoRouteToHostException || t instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public enum SecomOperationType {
@@ -18,16 +18,16 @@ package dk.dma.baleen.secom.serviceold;
 import static java.util.Objects.requireNonNull;
 
 import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.grad.secom.core.exceptions.SecomNotFoundException;
-import org.grad.secom.core.models.EnvelopeUploadObject;
 import org.grad.secom.core.models.SubscriptionNotificationObject;
 import org.grad.secom.core.models.SubscriptionRequestObject;
-import org.grad.secom.core.models.UploadObject;
-import org.grad.secom.core.models.enums.AckRequestEnum;
 import org.grad.secom.core.models.enums.ContainerTypeEnum;
 import org.grad.secom.core.models.enums.SECOM_DataProductType;
 import org.grad.secom.core.models.enums.SubscriptionEventEnum;
@@ -35,19 +35,31 @@ import org.locationtech.jts.geom.Geometry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import dk.dma.baleen.secom.controllers.SecomNode;
 import dk.dma.baleen.secom.model.SecomNodeEntity;
 import dk.dma.baleen.secom.model.SecomSubscriberEntity;
-import dk.dma.baleen.secom.model.SecomTransactionalUploadEntity;
+import dk.dma.baleen.secom.model.other.PublicationEntity;
+import dk.dma.baleen.secom.model.other.PublicationRecipiantEntity;
+import dk.dma.baleen.secom.model.other.PublicationRecipiantEntity.DeliveryStatus;
+import dk.dma.baleen.secom.repository.PublicationEntityRepository;
+import dk.dma.baleen.secom.repository.PublicationRecipiantAttemptedDeliveryEntityRepository;
+import dk.dma.baleen.secom.repository.PublicationRecipiantEntityRepository;
 import dk.dma.baleen.secom.repository.SecomNodeRepository;
 import dk.dma.baleen.secom.repository.SecomSubscriberRepository;
 import dk.dma.baleen.secom.repository.SecomUploadRepository;
 import dk.dma.baleen.secom.repository.SecomUploadedLinkRepository;
 import dk.dma.baleen.secom.service.SecomServiceRegistryService;
 import dk.dma.baleen.secom.serviceold.SecomOutboxService.SecomOperationType;
+import dk.dma.baleen.service.BaleenMetrics;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 
 /**
  * Quick and dirty subscription service. Being replaced with a {@link SecomSubscriptionServiceV2}.
@@ -57,6 +69,9 @@ public class SecomSubscriberService {
 
     private static final Logger logger = LoggerFactory.getLogger(SecomSubscriberService.class);
 
+    /** Transaction resource key marking that the delivery worker is woken up when the current transaction commits. */
+    private static final Object WAKE_UP_REGISTERED = new Object();
+
     @Autowired
     SecomOutboxService outbox;
 
@@ -75,38 +90,93 @@ public class SecomSubscriberService {
     /** {@inheritDoc} */
     public void onPublication(Object message) {}
 
+    @Autowired
+    PublicationEntityRepository publicationRepository;
+
+    @Autowired
+    PublicationRecipiantEntityRepository recipientRepository;
+
+    @Autowired
+    PublicationRecipiantAttemptedDeliveryEntityRepository attemptRepository;
+
+    @Autowired
+    SecomDeliveryService deliveryService;
+
+    @Autowired
+    SecomSubscriptionIndex subscriptionIndex;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    /**
+     * Publishes a dataset to all active subscribers.
+     * <p>
+     * Nothing is sent from this method. Instead a publication and a pending delivery per subscriber is stored as part of
+     * the current transaction, and delivered by {@link SecomDeliveryService} once the transaction has committed.
+     */
     @Transactional
     public void publish(SECOM_DataProductType dataProductType, String productVersion, UUID dataReference, Geometry geometry,
             TransmissibleDatasetGenerator generator) {
-        List<SecomSubscriberEntity> subscribers = subscriptionRepository.findActiveSubscribers(dataProductType, productVersion, dataReference, geometry,
-                Instant.now());
-        System.out.println("Found " + subscribers.size() + " subscribers");
-        for (SecomSubscriberEntity e : subscribers) {
-            SecomTransactionalUploadEntity upl = new SecomTransactionalUploadEntity();
-//            upl = uploRepository.save(upl);
-
-            // Build the data envelope
-            EnvelopeUploadObject envelope = new EnvelopeUploadObject();
-            envelope.setDataProductType(dataProductType);
-            envelope.setFromSubscription(true);
-            envelope.setAckRequest(AckRequestEnum.DELIVERED_ACK_REQUESTED);
-            envelope.setTransactionIdentifier(upl.getTransactionIdentifier());
-            envelope.setContainerType(ContainerTypeEnum.S100_DataSet);
-
-            envelope.setData(generator.getDataset());
-            requireNonNull(envelope.getData());
+        Tags tags = BaleenMetrics.productTags(dataProductType, productVersion);
+        long start = System.nanoTime();
+        Instant now = Instant.now();
+        List<UUID> subscribers = subscriptionIndex.match(dataProductType, productVersion, dataReference, geometry, now);
+        logger.debug("Found {} subscribers for dataset {}", subscribers.size(), dataReference);
+        DistributionSummary.builder("baleen.secom.publish.subscribers").tags(tags).register(meterRegistry).record(subscribers.size());
+        if (!subscribers.isEmpty()) {
+            store(dataProductType, subscribers, generator, now);
+        }
+        meterRegistry.timer("baleen.secom.publish", tags).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /** Stores a publication and a pending delivery per subscriber. */
+    private void store(SECOM_DataProductType dataProductType, List<UUID> subscribers, TransmissibleDatasetGenerator generator, Instant now) {
+        // The dataset is stored once, and shared by all recipients
+        PublicationEntity publication = new PublicationEntity();
+        publication.setCreatedAt(now);
+        publication.setTransactionIdentifier(UUID.randomUUID());
+        publication.setDataProductType(dataProductType);
+        publication.setContainerType(ContainerTypeEnum.S100_DataSet);
+        publication.setEnvelopeUploadObject(requireNonNull(generator.getDataset()));
 //
 //            if (e.getContainerType() == ContainerTypeEnum.S100_DataSet) {
 //                envelope.setData(generator.getDataset());
 //            } else if (e.getContainerType() == ContainerTypeEnum.S100_ExchangeSet) {
 //                envelope.setData(generator.getExchangeSet());
 //            }
+        publicationRepository.save(publication);
 
-            // Set the envelope to the upload object
-            UploadObject uploadObject = new UploadObject();
-            uploadObject.setEnvelope(envelope);
+        List<PublicationRecipiantEntity> recipients = new ArrayList<>(subscribers.size());
+        for (UUID subscriptionId : subscribers) {
+            PublicationRecipiantEntity recipient = new PublicationRecipiantEntity();
+            recipient.setCreatedAt(now);
+            recipient.setNextRetryAt(now);
+            recipient.setPublishedDataSet(publication);
+            recipient.setStatus(DeliveryStatus.PENDING);
+            recipient.setSubscription(subscriptionRepository.getReferenceById(subscriptionId));
+            recipients.add(recipient);
+        }
+        recipientRepository.saveAll(recipients);
+
+        // Wake up the delivery worker once the deliveries are visible to it. Only once per transaction, so publishing a
+        // batch of datasets wakes the worker once, although each dataset is still a publication of its own
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            if (!TransactionSynchronizationManager.hasResource(WAKE_UP_REGISTERED)) {
+                TransactionSynchronizationManager.bindResource(WAKE_UP_REGISTERED, Boolean.TRUE);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        deliveryService.wakeUp();
+                    }
 
-            outbox.sendTo(new SecomNode(e.getNode().getMrn()), SecomOperationType.UPLOAD, uploadObject);
+                    @Override
+                    public void afterCompletion(int status) {
+                        TransactionSynchronizationManager.unbindResourceIfPossible(WAKE_UP_REGISTERED);
+                    }
+                });
+            }
+        } else {
+            deliveryService.wakeUp();
         }
     }
 
@@ -114,7 +184,7 @@ public class SecomSubscriberService {
     SecomNodeRepository nodeRepository;
 
     @Transactional
-    public UUID subscribe(SecomNode node, SubscriptionRequestObject request) {
+    public UUID subscribe(SecomNode node, SubscriptionRequestObject request, @Nullable Geometry geometry) {
 
         logger.info("Subscription created from {}", node.mrn());
 
@@ -130,8 +200,22 @@ public class SecomSubscriberService {
         SecomNodeEntity sne = nodeRepository.findOrCreate(node.mrn());
 
         subscription.setNode(sne);
+        subscription.setContainerType(request.getContainerType());
+        subscription.setDataProductType(request.getDataProductType());
+        subscription.setProductVersion(request.getProductVersion());
+        subscription.setDataReference(request.getDataReference());
+        subscription.setOriginalWkt(request.getGeometry());
+        subscription.setOriginalUnlocode(request.getUnlocode());
+        subscription.setGeometry(geometry);
+        if (request.getSubscriptionPeriodStart() != null) {
+            subscription.setSubscriptionStart(request.getSubscriptionPeriodStart().toInstant(ZoneOffset.UTC));
+        }
+        if (request.getSubscriptionPeriodEnd() != null) {
+            subscription.setSubscriptionEnd(request.getSubscriptionPeriodEnd().toInstant(ZoneOffset.UTC));
+        }
 
         subscriptionRepository.save(subscription);
+        subscriptionIndex.addAfterCommit(subscription);
         UUID uuid = subscription.getId();
         logger.info("Created new subscription {}", node.mrn());
 
@@ -154,7 +238,10 @@ public class SecomSubscriberService {
             // Can only remove own subscriptions
             if (entity.getNode().getMrn().equals(node.mrn())) {
                 logger.info("Removing subscription with UUID {}", uuid);
+                attemptRepository.deleteBySubscription(entity);
+                recipientRepository.deleteBySubscription(entity);
                 subscriptionRepository.delete(entity);
+                subscriptionIndex.removeAfterCommit(uuid);
                 return;
             } else {
                 logger.warn("Attempted to delete subscription with UUID {}. But subscription was owned by another MRN {} than requesting mrn {}", uuid,
@@ -163,4 +250,15 @@ public class SecomSubscriberService {
         }
         throw new SecomNotFoundException("Unknown subscription with UUID" + uuid);
     }
-}
\ No newline at end of file
+
+    /**
+     * Removes all subscriptions, including any deliveries to them.
+     */
+    @Transactional
+    public void removeAll() {
+        attemptRepository.deleteAllInBatch();
+        recipientRepository.deleteAllInBatch();
+        subscriptionRepository.deleteAll();
+        subscriptionIndex.clearAfterCommit();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.secom.serviceold;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.grad.secom.core.models.enums.SECOM_DataProductType;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import dk.dma.baleen.secom.model.SecomSubscriberEntity;
+import dk.dma.baleen.secom.repository.SecomSubscriberRepository;
+import dk.dma.baleen.service.CopyOnWriteIndex;
+import dk.dma.baleen.service.TransactionCallbacks;
+
+/**
+ * An in-memory index of all subscriptions, used for finding the subscribers of a newly published dataset.
+ * <p>
+ * Subscriptions with an area are kept in an {@link STRtree}, so only subscriptions whose area might intersect the
+ * dataset are tested. Subscriptions without an area match datasets anywhere. The index is a {@link CopyOnWriteIndex},
+ * and the tree is built lazily by the first match after an update.
+ */
+@Service
+public class SecomSubscriptionIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecomSubscriptionIndex.class);
+
+    @Autowired
+    SecomSubscriberRepository repository;
+
+    /** The indexed subscriptions by id. */
+    private final CopyOnWriteIndex<UUID, Entry, Trees> index = new CopyOnWriteIndex<>(Trees::build);
+
+    /** Rebuilds the index from all subscriptions in the repository. */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void rebuild() {
+        Map<UUID, Entry> entries = new HashMap<>();
+        for (SecomSubscriberEntity s : repository.findAll()) {
+            entries.put(s.getId(), Entry.of(s));
+        }
+        index.replaceAll(entries);
+        logger.info("Indexed {} subscriptions", entries.size());
+    }
+
+    /**
+     * Returns the number of subscriptions in the index.
+     *
+     * @return the number of subscriptions in the index
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Adds or replaces the specified subscription once the current transaction commits.
+     *
+     * @param subscription
+     *            the subscription
+     */
+    public void addAfterCommit(SecomSubscriberEntity subscription) {
+        Entry e = Entry.of(subscription);
+        TransactionCallbacks.afterCommit(() -> index.put(e.id(), e));
+    }
+
+    /**
+     * Removes the subscription with the specified id once the current transaction commits.
+     *
+     * @param id
+     *            the id of the subscription
+     */
+    public void removeAfterCommit(UUID id) {
+        TransactionCallbacks.afterCommit(() -> index.remove(id));
+    }
+
+    /** Removes all subscriptions once the current transaction commits. */
+    public void clearAfterCommit() {
+        TransactionCallbacks.afterCommit(index::clear);
+    }
+
+    /**
+     * Finds the ids of all subscriptions matching a published dataset.
+     *
+     * @param dataProductType
+     *            the product type of the dataset
+     * @param productVersion
+     *            the product version of the dataset
+     * @param dataReference
+     *            the uuid of the dataset
+     * @param geometry
+     *            the geometry of the dataset, or null if the dataset has no geometry in which case all areas match
+     * @param now
+     *            the current time
+     * @return the ids of all matching subscriptions
+     */
+    public List<UUID> match(SECOM_DataProductType dataProductType, String productVersion, UUID dataReference, @Nullable Geometry geometry,
+            Instant now) {
+        CopyOnWriteIndex.Snapshot<UUID, Entry, Trees> s = index.snapshot();
+        List<UUID> result = new ArrayList<>();
+        if (s.entries().isEmpty()) {
+            return result;
+        } else if (geometry == null || geometry.isEmpty()) {
+            for (Entry e : s.entries().values()) {
+                if (e.matches(dataProductType, productVersion, dataReference, now)) {
+                    result.add(e.id());
+                }
+            }
+            return result;
+        }
+
+        Trees t = s.trees();
+        for (Entry e : t.global) {
+            if (e.matches(dataProductType, productVersion, dataReference, now)) {
+                result.add(e.id());
+            }
+        }
+        PreparedGeometry pg = PreparedGeometryFactory.prepare(geometry);
+        t.spatial.query(geometry.getEnvelopeInternal(), item -> {
+            Entry e = (Entry) item;
+            if (e.matches(dataProductType, productVersion, dataReference, now) && pg.intersects(e.geometry())) {
+                result.add(e.id());
+            }
+        });
+        return result;
+    }
+
+    /** The parts of a subscription needed for matching. Null attributes match anything. */
+    private record Entry(UUID id, SECOM_DataProductType dataProductType, String productVersion, UUID dataReference, Geometry geometry,
+            Instant subscriptionStart, Instant subscriptionEnd) {
+
+        static Entry of(SecomSubscriberEntity s) {
+            return new Entry(s.getId(), s.getDataProductType(), s.getProductVersion(), s.getDataReference(), s.getGeometry(), s.getSubscriptionStart(),
+                    s.getSubscriptionEnd());
+        }
+
+        boolean hasArea() {
+            return geometry != null && !geometry.isEmpty();
+        }
+
+        boolean matches(SECOM_DataProductType dataProductType, String productVersion, UUID dataReference, Instant now) {
+            return (this.dataProductType == null || this.dataProductType == dataProductType)
+                    && (this.productVersion == null || this.productVersion.equals(productVersion))
+                    && (this.dataReference == null || this.dataReference.equals(dataReference))
+                    && (subscriptionStart == null || !subscriptionStart.isAfter(now)) && (subscriptionEnd == null || !subscriptionEnd.isBefore(now));
+        }
+    }
+
+    /** Subscriptions with an area in a tree, and the subscriptions without an area. */
+    private record Trees(STRtree spatial, List<Entry> global) {
+
+        static Trees build(Iterable<Entry> entries) {
+            STRtree spatial = new STRtree();
+            List<Entry> global = new ArrayList<>();
+            for (Entry e : entries) {
+                if (e.hasArea()) {
+                    spatial.insert(e.geometry().getEnvelopeInternal(), e);
+                } else {
+                    global.add(e);
+                }
+            }
+            spatial.build();
+            return new Trees(spatial, List.copyOf(global));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.secom.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.grad.secom.core.models.enums.SECOM_DataProductType;
+
+import dk.dma.baleen.service.spi.DataSet;
+
+/**
+ * Writes S-100 exchange sets, a ZIP file with an exchange catalogue and the dataset files of a single product.
+ * <p>
+ * The layout is that of S-100 Part 17:
+ *
+ * <pre>
+ * S100_ROOT/CATALOG.XML
+ * S100_ROOT/S-124/DATASET_FILES/&lt;uuid&gt;.GML
+ * </pre>
+ *
+ * Dataset files are written to the ZIP stream one at a time, and the catalogue last. Only the content of the dataset
+ * currently being written is held in memory. The catalogue is a minimal {@code S100_ExchangeCatalogue} listing the
+ * discovery metadata of each dataset file.
+ */
+public final class S100ExchangeSetWriter {
+
+    /** The namespace of the S-100 exchange catalogue. */
+    static final String CATALOGUE_NAMESPACE = "http://www.iho.int/s100/xc/5.0";
+
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+    /** The product specification, for example S-124. */
+    private final String productSpecification;
+
+    /** The version of the product specification. */
+    private final String productVersion;
+
+    /**
+     * @param productSpecification
+     *            the product specification of the datasets, for example S-124
+     * @param productVersion
+     *            the version of the product specification, or null if not known
+     */
+    public S100ExchangeSetWriter(String productSpecification, String productVersion) {
+        this.productSpecification = productSpecification;
+        this.productVersion = productVersion;
+    }
+
+    /**
+     * Creates an exchange set in memory.
+     *
+     * @param datasets
+     *            the datasets to include
+     * @param content
+     *            returns the content of a dataset
+     * @param level
+     *            the compression level, either {@link ZipDirectory#STORED} or a {@link java.util.zip.Deflater} level
+     * @param maxSize
+     *            the maximum size of the exchange set in bytes
+     * @return the exchange set
+     * @throws IOException
+     *             if the exchange set could not be created
+     * @throws ZipDirectory.ZipFileSizeExceeded
+     *             if the exchange set would exceed the maximum size
+     */
+    public byte[] toByteArray(Iterable<? extends DataSet> datasets, Function<? super DataSet, byte[]> content, int level, long maxSize)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, datasets, content, level, maxSize);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes an exchange set to the specified stream. The stream is not closed.
+     *
+     * @param out
+     *            the stream to write to
+     * @param datasets
+     *            the datasets to include
+     * @param content
+     *            returns the content of a dataset
+     * @param level
+     *            the compression level, either {@link ZipDirectory#STORED} or a {@link java.util.zip.Deflater} level
+     * @param maxSize
+     *            the maximum size of the exchange set in bytes
+     * @return the number of bytes written
+     * @throws IOException
+     *             if the exchange set could not be written
+     * @throws ZipDirectory.ZipFileSizeExceeded
+     *             if the exchange set would exceed the maximum size, some data may already have been written
+     */
+    public long write(OutputStream out, Iterable<? extends DataSet> datasets, Function<? super DataSet, byte[]> content, int level, long maxSize)
+            throws IOException {
+        try {
+            return ZipDirectory.writeTo(out, root -> {
+                ZipDirectory s100Root = root.addDirectory("S100_ROOT");
+                ZipDirectory files = s100Root.addDirectory(productSpecification).addDirectory("DATASET_FILES");
+
+                List<Entry> entries = new ArrayList<>();
+                for (DataSet ds : datasets) {
+                    String fileName = ds.uuid() + ".GML";
+                    files.addFile(fileName, content.apply(ds));
+                    entries.add(new Entry(productSpecification + "/DATASET_FILES/" + fileName, ds.uuid()));
+                }
+                s100Root.addFile("CATALOG.XML", catalogue(entries));
+            }, level, maxSize);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** Creates the exchange catalogue. */
+    private byte[] catalogue(List<Entry> entries) throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512 + entries.size() * 512);
+        XMLStreamWriter w = XML_OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+        w.writeStartDocument("UTF-8", "1.0");
+        w.setPrefix("S100XC", CATALOGUE_NAMESPACE);
+        w.writeStartElement(CATALOGUE_NAMESPACE, "S100_ExchangeCatalogue");
+        w.writeNamespace("S100XC", CATALOGUE_NAMESPACE);
+
+        w.writeStartElement(CATALOGUE_NAMESPACE, "identifier");
+        element(w, "identifier", UUID.randomUUID().toString());
+        element(w, "dateTime", Instant.now().truncatedTo(ChronoUnit.SECONDS).toString());
+        w.writeEndElement();
+
+        for (Entry e : entries) {
+            w.writeStartElement(CATALOGUE_NAMESPACE, "datasetDiscoveryMetadata");
+            w.writeStartElement(CATALOGUE_NAMESPACE, "S100_DatasetDiscoveryMetadata");
+            element(w, "fileName", e.fileName());
+            element(w, "datasetID", e.uuid().toString());
+            element(w, "compressionFlag", "false");
+            element(w, "dataProtection", "false");
+            element(w, "purpose", "newDataset");
+            w.writeStartElement(CATALOGUE_NAMESPACE, "productSpecification");
+            element(w, "name", productSpecification);
+            if (productVersion != null) {
+                element(w, "version", productVersion);
+            }
+            w.writeEndElement();
+            element(w, "encodingFormat", "GML");
+            w.writeEndElement();
+            w.writeEndElement();
+        }
+
+        w.writeEndElement();
+        w.writeEndDocument();
+        w.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the name of the product specification of a SECOM data product type, for example S-124 for S124.
+     *
+     * @param type
+     *            the data product type
+     * @return the name of the product specification
+     */
+    public static String productSpecification(SECOM_DataProductType type) {
+        String name = type.name();
+        return name.matches("S\\d+") ? "S-" + name.substring(1) : name;
+    }
+
+    private static void element(XMLStreamWriter w, String name, String value) throws XMLStreamException {
+        w.writeStartElement(CATALOGUE_NAMESPACE, name);
+        w.writeCharacters(value);
+        w.writeEndElement();
+    }
+
+    /** A dataset file in the exchange set. */
+    private record Entry(String fileName, UUID uuid) {}
+}
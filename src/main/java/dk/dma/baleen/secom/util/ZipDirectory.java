@@ -16,11 +16,13 @@
 
 package dk.dma.baleen.secom.util;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -43,14 +45,24 @@ import java.util.zip.ZipOutputStream;
  * });
  * }</pre>
  *
+ * <p>Archives that may grow large should be written directly to their destination with
+ * {@link #writeTo(OutputStream, ZipConsumer, int, long)} instead of being built in memory.
+ *
  * <p>The class enforces validation on file and directory names to ensure ZIP file compatibility
  * across different platforms. Invalid characters and potentially dangerous paths (like directory
  * traversal sequences) are not allowed.
  */
 public class ZipDirectory {
+
+    /** A compression level that stores files without compressing them. Other levels are those of {@link Deflater}. */
+    public static final int STORED = -2;
+
     private final String name;
     private final ZipOutputStream zos;
 
+    /** The compression level of files added, either {@link #STORED} or a {@link Deflater} level. */
+    private final int level;
+
     private static final String INVALID_CHARS = "/\\:*?\"<>|";
 
     /**
@@ -85,26 +97,58 @@ public class ZipDirectory {
             throw new IllegalArgumentException("Maximum size must be greater than 0");
         }
 
-        OutputStream out = maxSize == Integer.MAX_VALUE
-            ? new ByteArrayOutputStream()
-            : new SizeLimitedOutputStream(maxSize);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out, consumer, Deflater.DEFAULT_COMPRESSION, maxSize);
+        return out.toByteArray();
+    }
 
-        try (ZipOutputStream zos = new ZipOutputStream(out)) {
-            ZipDirectory root = new ZipDirectory("", zos);
-            consumer.accept(root);
+    /**
+     * Writes a ZIP file directly to the specified stream using the provided consumer to populate its contents. Only the
+     * file currently being added is held in memory, so arbitrarily large archives can be written in constant memory.
+     * <p>
+     * The specified stream is not closed, but the ZIP file is finished when the consumer returns.
+     * Note: The consumer should not be executed concurrently as ZipOutputStream is not thread-safe.
+     *
+     * @param out the stream to write the ZIP file to
+     * @param consumer a consumer that will be called with the root directory to populate the ZIP file
+     * @param level the compression level of files, either {@link #STORED} or a {@link Deflater} level
+     * @param maxSize the maximum size in bytes that the ZIP file can grow to
+     * @return the number of bytes written
+     * @throws IOException if an I/O error occurs while writing the ZIP file
+     * @throws ZipFileSizeExceeded if the size limit would be exceeded, some data may already have been written
+     * @throws NullPointerException if the stream or consumer is null
+     * @throws IllegalArgumentException if maxSize is less than or equal to 0 or the level is invalid
+     */
+    public static long writeTo(OutputStream out, ZipConsumer<? super ZipDirectory> consumer, int level, long maxSize) throws Exception {
+        Objects.requireNonNull(out, "Output stream cannot be null");
+        Objects.requireNonNull(consumer, "Consumer cannot be null");
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be greater than 0");
+        }
+        if (level != STORED && level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
         }
 
-        return out instanceof ByteArrayOutputStream
-            ? ((ByteArrayOutputStream) out).toByteArray()
-            : ((SizeLimitedOutputStream) out).toByteArray();
+        SizeLimitedOutputStream limited = new SizeLimitedOutputStream(out, maxSize);
+        ZipOutputStream zos = new ZipOutputStream(limited);
+        if (level != STORED) {
+            zos.setLevel(level);
+        }
+        ZipDirectory root = new ZipDirectory("", zos, level);
+        consumer.accept(root);
+        // Writes the central directory without closing the underlying stream
+        zos.finish();
+        zos.flush();
+        return limited.count;
     }
 
-    private ZipDirectory(String name, ZipOutputStream zos) throws IOException {
+    private ZipDirectory(String name, ZipOutputStream zos, int level) throws IOException {
         if (!name.endsWith("/") && !name.isEmpty()) {
             name += "/";
         }
         this.name = name;
         this.zos = zos;
+        this.level = level;
 
         if (!name.isEmpty()) {
             zos.putNextEntry(new ZipEntry(name));
@@ -140,15 +184,17 @@ public class ZipDirectory {
         validateFileName(fileName);
 
         ZipEntry zipEntry = new ZipEntry(name + fileName);
-        zos.putNextEntry(zipEntry);
-
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(content)) {
-            byte[] buffer = new byte[8192];
-            int length;
-            while ((length = bis.read(buffer)) > 0) {
-                zos.write(buffer, 0, length);
-            }
+        if (level == STORED) {
+            // Stored entries must declare their size and checksum up front
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            zipEntry.setMethod(ZipEntry.STORED);
+            zipEntry.setSize(content.length);
+            zipEntry.setCompressedSize(content.length);
+            zipEntry.setCrc(crc.getValue());
         }
+        zos.putNextEntry(zipEntry);
+        zos.write(content);
         zos.closeEntry();
     }
 
@@ -176,7 +222,7 @@ public class ZipDirectory {
         }
         validateDirectoryName(dirName);
         String fullPath = name + dirName;
-        return new ZipDirectory(fullPath, zos);
+        return new ZipDirectory(fullPath, zos, level);
     }
 
     /**
@@ -226,32 +272,32 @@ public class ZipDirectory {
         }
     }
 
-    private static class SizeLimitedOutputStream extends OutputStream {
-        private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        private final int maxSize;
+    /** Counts the bytes written to the underlying stream, failing if the limit would be exceeded. */
+    private static class SizeLimitedOutputStream extends FilterOutputStream {
+        private final long maxSize;
+        private long count;
 
-        SizeLimitedOutputStream(int maxSize) {
+        SizeLimitedOutputStream(OutputStream out, long maxSize) {
+            super(out);
             this.maxSize = maxSize;
         }
 
         @Override
-        public void write(int b) throws ZipFileSizeExceeded {
-            if (baos.size() + 1 > maxSize) {
+        public void write(int b) throws IOException {
+            if (count + 1 > maxSize) {
                 throw new ZipFileSizeExceeded(maxSize);
             }
-            baos.write(b);
+            out.write(b);
+            count++;
         }
 
         @Override
-        public void write(byte[] b, int off, int len) throws ZipFileSizeExceeded {
-            if (baos.size() + len > maxSize) {
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (count + len > maxSize) {
                 throw new ZipFileSizeExceeded(maxSize);
             }
-            baos.write(b, off, len);
-        }
-
-        public byte[] toByteArray() {
-            return baos.toByteArray();
+            out.write(b, off, len);
+            count += len;
         }
     }
 
@@ -277,7 +323,7 @@ public class ZipDirectory {
     public static class ZipFileSizeExceeded extends IOException {
         private static final long serialVersionUID = 1L;
 
-        public ZipFileSizeExceeded(int maxSize) {
+        public ZipFileSizeExceeded(long maxSize) {
             super("ZIP file size would exceed limit of " + maxSize + " bytes");
         }
     }
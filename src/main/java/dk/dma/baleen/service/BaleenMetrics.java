@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import dk.dma.baleen.service.s124.S124SupportedVersions;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Common tags of the metrics published by Baleen. All metrics are exposed at {@code /actuator/prometheus}.
+ */
+public final class BaleenMetrics {
+
+    /** The tag holding the data product type, such as {@code S124}. */
+    public static final String PRODUCT = "product";
+
+    /** The tag holding the product version, such as {@code 1.0.0}. */
+    public static final String VERSION = "version";
+
+    /** The product versions that are used as tag values by {@link #requestTags(Object, String)}. */
+    private static final Set<String> SUPPORTED_VERSIONS = Stream.of(S124SupportedVersions.values()).map(S124SupportedVersions::productVersion)
+            .collect(Collectors.toUnmodifiableSet());
+
+    private BaleenMetrics() {}
+
+    /**
+     * Returns the product and version tags.
+     *
+     * @param dataProductType
+     *            the data product type, may be null
+     * @param productVersion
+     *            the product version, may be null
+     * @return the tags
+     */
+    public static Tags productTags(Object dataProductType, String productVersion) {
+        return Tags.of(PRODUCT, dataProductType == null ? "unknown" : dataProductType.toString(), VERSION,
+                productVersion == null ? "unknown" : productVersion);
+    }
+
+    /**
+     * Returns the product and version tags for a request from a remote node. As the version is chosen by the client, any
+     * version that is not supported is tagged as {@code other}, so clients cannot create an unbounded number of time
+     * series.
+     *
+     * @param dataProductType
+     *            the data product type, may be null
+     * @param productVersion
+     *            the requested product version, may be null
+     * @return the tags
+     */
+    public static Tags requestTags(Object dataProductType, String productVersion) {
+        return productTags(dataProductType, productVersion == null || SUPPORTED_VERSIONS.contains(productVersion) ? productVersion : "other");
+    }
+}
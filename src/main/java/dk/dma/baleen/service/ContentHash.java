@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Calculates content hashes of datasets. Used for detecting whether a dataset has changed without comparing the
+ * content itself.
+ */
+public final class ContentHash {
+
+    private ContentHash() {}
+
+    /**
+     * Calculates the content hash of the specified bytes.
+     *
+     * @param content
+     *            the content to hash
+     * @return a lowercase hex encoded SHA-256 hash of the content
+     */
+    public static String of(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Calculates the content hash of the UTF-8 encoding of the specified string.
+     *
+     * @param content
+     *            the content to hash
+     * @return a lowercase hex encoded SHA-256 hash of the content
+     */
+    public static String of(String content) {
+        return of(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A copy-on-write map of index entries, with search trees that are built lazily from the entries.
+ * <p>
+ * Every update creates a new immutable {@link Snapshot}, so readers never block and always see a consistent view.
+ * The trees of a snapshot are built by the first reader that needs them, so a burst of updates only builds the trees
+ * once. Updates are serialized, and copy all entries, so the index is meant for data that is read far more often than
+ * it is updated.
+ *
+ * @param <K>
+ *            the type of keys
+ * @param <E>
+ *            the type of entries
+ * @param <T>
+ *            the type of the trees built from the entries
+ */
+public final class CopyOnWriteIndex<K, E, T> {
+
+    /** Builds the trees of a snapshot from its entries. */
+    private final Function<Collection<E>, T> treeBuilder;
+
+    /** The current snapshot. */
+    private volatile Snapshot<K, E, T> snapshot;
+
+    /**
+     * Creates a new empty index.
+     *
+     * @param treeBuilder
+     *            builds the trees of a snapshot from its entries, must be thread-safe
+     */
+    public CopyOnWriteIndex(Function<Collection<E>, T> treeBuilder) {
+        this.treeBuilder = requireNonNull(treeBuilder);
+        this.snapshot = new Snapshot<>(Map.of(), treeBuilder);
+    }
+
+    /** Removes all entries. */
+    public synchronized void clear() {
+        snapshot = new Snapshot<>(Map.of(), treeBuilder);
+    }
+
+    /**
+     * Adds or replaces an entry.
+     *
+     * @param key
+     *            the key of the entry
+     * @param entry
+     *            the entry
+     */
+    public synchronized void put(K key, E entry) {
+        Map<K, E> entries = new HashMap<>(snapshot.entries);
+        entries.put(key, requireNonNull(entry));
+        snapshot = new Snapshot<>(entries, treeBuilder);
+    }
+
+    /**
+     * Removes an entry, if present.
+     *
+     * @param key
+     *            the key of the entry
+     */
+    public synchronized void remove(K key) {
+        if (snapshot.entries.containsKey(key)) {
+            Map<K, E> entries = new HashMap<>(snapshot.entries);
+            entries.remove(key);
+            snapshot = new Snapshot<>(entries, treeBuilder);
+        }
+    }
+
+    /**
+     * Removes all entries matching the specified filter.
+     *
+     * @param filter
+     *            the filter
+     * @return the number of entries removed
+     */
+    public synchronized int removeIf(Predicate<? super E> filter) {
+        Map<K, E> entries = new HashMap<>(snapshot.entries);
+        if (!entries.values().removeIf(filter)) {
+            return 0;
+        }
+        int removed = snapshot.entries.size() - entries.size();
+        snapshot = new Snapshot<>(entries, treeBuilder);
+        return removed;
+    }
+
+    /**
+     * Replaces all entries.
+     *
+     * @param entries
+     *            the new entries, copied
+     */
+    public synchronized void replaceAll(Map<K, E> entries) {
+        snapshot = new Snapshot<>(new HashMap<>(entries), treeBuilder);
+    }
+
+    /** {@return the number of entries} */
+    public int size() {
+        return snapshot.entries.size();
+    }
+
+    /** {@return the current snapshot} */
+    public Snapshot<K, E, T> snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * An immutable snapshot of an index.
+     *
+     * @param <K>
+     *            the type of keys
+     * @param <E>
+     *            the type of entries
+     * @param <T>
+     *            the type of the trees built from the entries
+     */
+    public static final class Snapshot<K, E, T> {
+
+        /** All entries by key, never modified. */
+        private final Map<K, E> entries;
+
+        private final Function<Collection<E>, T> treeBuilder;
+
+        /** The trees, built lazily. */
+        private volatile T trees;
+
+        private Snapshot(Map<K, E> entries, Function<Collection<E>, T> treeBuilder) {
+            this.entries = Collections.unmodifiableMap(entries);
+            this.treeBuilder = treeBuilder;
+        }
+
+        /** {@return all entries by key} */
+        public Map<K, E> entries() {
+            return entries;
+        }
+
+        /** {@return the trees of the snapshot, building them if this is the first time they are needed} */
+        public T trees() {
+            T t = trees;
+            if (t == null) {
+                synchronized (this) {
+                    t = trees;
+                    if (t == null) {
+                        trees = t = treeBuilder.apply(entries.values());
+                    }
+                }
+            }
+            return t;
+        }
+    }
+}
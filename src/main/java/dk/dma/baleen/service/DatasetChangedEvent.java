@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import dk.dma.baleen.service.spi.S100DataProductType;
+
+/**
+ * An application event published when a dataset has been inserted, updated or cancelled. Published as part of the
+ * transaction that changed the dataset, use a transactional event listener to only see committed changes.
+ *
+ * @param dataProductType
+ *            the data product of the dataset
+ * @param uuid
+ *            the uuid of the dataset
+ * @param mrn
+ *            the mrn of the dataset
+ * @param change
+ *            how the dataset was changed
+ * @param time
+ *            the time of the change
+ */
+public record DatasetChangedEvent(S100DataProductType dataProductType, UUID uuid, String mrn, Change change, Instant time) {
+
+    /** How a dataset was changed. */
+    public enum Change {
+        INSERTED, UPDATED, CANCELLED;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import dk.dma.baleen.service.spi.DataSet;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * A cache of the content of recently served datasets.
+ * <p>
+ * The same active datasets are served to every client that polls for them. Without the cache every request loads and
+ * decompresses the content of each dataset again. Entries are keyed by the uuid and content hash of a dataset, so a
+ * changed dataset never hits a stale entry. The cache is bounded by the total number of bytes cached, evicting the least
+ * recently used entries first.
+ * <p>
+ * Hits, misses, evictions and the current size are exposed as {@code baleen.payload.cache.*} metrics.
+ */
+@Service
+public class DatasetPayloadCache {
+
+    /** The cached content, by key. In access order, so the first entry is the least recently used. */
+    private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The current key of each cached dataset, so entries can be invalidated by uuid. */
+    private final Map<UUID, Key> keys = new HashMap<>();
+
+    /** The maximum number of bytes cached. */
+    private final long maxBytes;
+
+    /** The number of bytes currently cached, guarded by entries. */
+    private long bytes;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    @Autowired
+    public DatasetPayloadCache(MeterRegistry registry, @Value("${baleen.payload-cache.max-size:64MB}") DataSize maxSize) {
+        this.maxBytes = maxSize.toBytes();
+        this.hits = registry.counter("baleen.payload.cache.requests", "result", "hit");
+        this.misses = registry.counter("baleen.payload.cache.requests", "result", "miss");
+        this.evictions = registry.counter("baleen.payload.cache.evictions");
+        Gauge.builder("baleen.payload.cache.size", this, DatasetPayloadCache::cachedBytes).baseUnit("bytes").register(registry);
+        Gauge.builder("baleen.payload.cache.entries", this, DatasetPayloadCache::cachedEntries).register(registry);
+    }
+
+    /**
+     * Returns the content of the specified dataset, from the cache if possible. Datasets without a content hash are not
+     * cached.
+     *
+     * @param dataset
+     *            the dataset
+     * @return the content of the dataset, must not be modified
+     */
+    public byte[] get(DataSet dataset) {
+        return get(dataset, DataSet::toByteArray);
+    }
+
+    /**
+     * Returns the content of the specified dataset, from the cache if possible. On a miss the content is loaded with the
+     * specified loader, for datasets whose content cannot be loaded through the dataset itself, such as detached
+     * entities. Datasets without a content hash are not cached.
+     *
+     * @param dataset
+     *            the dataset
+     * @param loader
+     *            loads the content of the dataset
+     * @return the content of the dataset, must not be modified
+     */
+    public byte[] get(DataSet dataset, Function<? super DataSet, byte[]> loader) {
+        String contentHash = dataset.contentHash();
+        if (contentHash == null || maxBytes <= 0) {
+            return loader.apply(dataset);
+        }
+        Key key = new Key(dataset.uuid(), contentHash);
+        synchronized (entries) {
+            byte[] data = entries.get(key);
+            if (data != null) {
+                hits.increment();
+                return data;
+            }
+        }
+        misses.increment();
+
+        // Load outside of the lock, loading the same dataset twice is harmless
+        byte[] data = loader.apply(dataset);
+        if (data.length <= maxBytes) {
+            synchronized (entries) {
+                Key existing = keys.put(key.uuid(), key);
+                if (existing != null && !existing.equals(key)) {
+                    remove(existing);
+                }
+                byte[] previous = entries.put(key, data);
+                bytes += data.length - (previous == null ? 0 : previous.length);
+                var it = entries.entrySet().iterator();
+                while (bytes > maxBytes && it.hasNext()) {
+                    Map.Entry<Key, byte[]> eldest = it.next();
+                    it.remove();
+                    keys.remove(eldest.getKey().uuid(), eldest.getKey());
+                    bytes -= eldest.getValue().length;
+                    evictions.increment();
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Removes the content of the specified dataset from the cache.
+     *
+     * @param uuid
+     *            the uuid of the dataset
+     */
+    public void invalidate(UUID uuid) {
+        synchronized (entries) {
+            Key key = keys.remove(uuid);
+            if (key != null) {
+                remove(key);
+            }
+        }
+    }
+
+    /** Removes everything from the cache. */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            keys.clear();
+            bytes = 0;
+        }
+    }
+
+    private long cachedBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    private int cachedEntries() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** Removes the specified entry, must be called with the lock held. */
+    private void remove(Key key) {
+        byte[] data = entries.remove(key);
+        if (data != null) {
+            bytes -= data.length;
+        }
+    }
+
+    private record Key(UUID uuid, String contentHash) {}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Records ingested datasets as metrics.
+ * <p>
+ * {@code baleen.ingest} times complete uploads and {@code baleen.ingest.datasets} counts the uploaded datasets, both
+ * tagged by their outcome. These are recorded for every upload, including failed uploads. {@code baleen.ingest.stage}
+ * times each {@link IngestTrace.Stage stage}, and is only recorded for sampled uploads, see {@link IngestTracer}.
+ */
+@Component
+public class IngestMetrics implements IngestTraceListener {
+
+    private final MeterRegistry registry;
+
+    public IngestMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onTrace(IngestTrace trace) {
+        Tags tags = BaleenMetrics.productTags(trace.dataProductType(), trace.productVersion());
+        // Bulk uploads have a result object as the outcome, instead of the outcome of a single dataset
+        String outcome = switch (trace.outcome()) {
+        case Enum<?> o -> o.name();
+        case String o -> o;
+        case null, default -> "BULK";
+        };
+        registry.timer("baleen.ingest", tags.and("outcome", outcome)).record(trace.totalNanos(), TimeUnit.NANOSECONDS);
+        Map<String, Integer> datasets = trace.datasets();
+        if (datasets.isEmpty()) {
+            registry.counter("baleen.ingest.datasets", tags.and("outcome", outcome)).increment();
+        } else {
+            for (Map.Entry<String, Integer> e : datasets.entrySet()) {
+                registry.counter("baleen.ingest.datasets", tags.and("outcome", e.getKey())).increment(e.getValue());
+            }
+        }
+        for (Map.Entry<IngestTrace.Stage, Long> e : trace.stageNanos().entrySet()) {
+            registry.timer("baleen.ingest.stage", tags.and("stage", e.getKey().name().toLowerCase())).record(e.getValue(), TimeUnit.NANOSECONDS);
+        }
+    }
+}
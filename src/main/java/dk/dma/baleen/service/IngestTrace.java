@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diagnostics of a single upload (or batch of uploads) of datasets, created by {@link IngestTracer#begin(String, String, String)}.
+ * <p>
+ * The outcome and total time of every upload is reported to {@link IngestTraceListener listeners}. Details and the
+ * time spent per {@link Stage} are only recorded for sampled uploads, for other uploads they are ignored at the cost of
+ * a single branch per call:
+ *
+ * <pre>{@code
+ * long t = trace.start();
+ * ... parse the dataset
+ * trace.stop(Stage.PARSE, t);
+ * }</pre>
+ */
+public final class IngestTrace {
+
+    /** The outcome of an upload that failed. */
+    public static final String FAILED = "FAILED";
+
+    /** A trace that ignores everything, used when no one is interested in traces. */
+    static final IngestTrace DISABLED = new IngestTrace(null, null, null, null, false, false);
+
+    /** The data product type of the datasets. */
+    private final String dataProductType;
+
+    /** The product version of the datasets. */
+    private final String productVersion;
+
+    /** What is being traced, such as the mrn of the dataset. */
+    private String name;
+
+    /** The tracer that created the trace, or null if the trace is disabled. */
+    private final IngestTracer tracer;
+
+    /** Whether or not details are logged. */
+    private final boolean logDetails;
+
+    /** Whether or not the upload was sampled, in which case the time spent per stage is recorded. */
+    private final boolean active;
+
+    /** The time the trace was started. */
+    private final long startNanos;
+
+    /** The total time spent in each stage. */
+    private final EnumMap<Stage, Long> stages = new EnumMap<>(Stage.class);
+
+    /** The number of datasets by outcome, for uploads of multiple datasets. */
+    private final Map<String, Integer> datasets = new LinkedHashMap<>();
+
+    /** The outcome of the upload, set by {@link #finish(Object)}. */
+    private Object outcome;
+
+    /** The total time of the upload, set by {@link #finish(Object)}. */
+    private long totalNanos;
+
+    IngestTrace(String dataProductType, String productVersion, String name, IngestTracer tracer, boolean sampled, boolean logDetails) {
+        this.dataProductType = dataProductType;
+        this.productVersion = productVersion;
+        this.name = name;
+        this.tracer = tracer;
+        this.active = tracer != null && sampled;
+        this.logDetails = active && logDetails;
+        this.startNanos = tracer == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Adds to the number of datasets with the specified outcome, for uploads of multiple datasets.
+     *
+     * @param outcome
+     *            the outcome of the datasets
+     * @param count
+     *            the number of datasets
+     */
+    public void count(String outcome, int count) {
+        if (tracer != null && count > 0) {
+            datasets.merge(outcome, count, Integer::sum);
+        }
+    }
+
+    /** {@return the number of datasets by outcome, empty if the upload was of a single dataset} */
+    public Map<String, Integer> datasets() {
+        return Map.copyOf(datasets);
+    }
+
+    /**
+     * Logs a detail about the upload at debug level. The message is only formatted if the trace is active and details are
+     * logged.
+     *
+     * @param format
+     *            the SLF4J format string
+     * @param arguments
+     *            the arguments
+     */
+    public void debug(String format, Object... arguments) {
+        if (logDetails) {
+            IngestTracer.LOGGER.debug(format, arguments);
+        }
+    }
+
+    /**
+     * Finishes the trace of an upload that failed.
+     *
+     * @param cause
+     *            why the upload failed
+     */
+    public void fail(Throwable cause) {
+        debug("Upload of {} failed: {}", name, cause.toString());
+        finish(FAILED);
+    }
+
+    /**
+     * Finishes the trace, logging the time spent in each stage at debug level and notifying listeners.
+     *
+     * @param outcome
+     *            the outcome of the upload, {@link #FAILED} if the upload failed
+     */
+    public void finish(Object outcome) {
+        if (tracer != null) {
+            this.outcome = outcome;
+            this.totalNanos = System.nanoTime() - startNanos;
+            tracer.finished(this);
+        }
+    }
+
+    /**
+     * @return whether or not the upload was sampled, and the time spent per stage is recorded
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /** {@return the data product type of the datasets} */
+    public String dataProductType() {
+        return dataProductType;
+    }
+
+    /** {@return the product version of the datasets} */
+    public String productVersion() {
+        return productVersion;
+    }
+
+    /** {@return what is being traced} */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Sets what is being traced, if it was not known when the trace was started. The name is only used when logging
+     * sampled uploads, so it is ignored if the trace is not active. In particular, the shared {@link #DISABLED} trace is
+     * never modified.
+     *
+     * @param name
+     *            the name
+     */
+    public void name(String name) {
+        if (active) {
+            this.name = name;
+        }
+    }
+
+    /** {@return the outcome of the upload, or null if the trace has not finished} */
+    public Object outcome() {
+        return outcome;
+    }
+
+    /** {@return the time spent in each stage in nanoseconds, stages that were never entered are not included} */
+    public Map<Stage, Long> stageNanos() {
+        return Map.copyOf(stages);
+    }
+
+    /**
+     * Starts timing a stage.
+     *
+     * @return the start time to pass to {@link #stop(Stage, long)}
+     */
+    public long start() {
+        return active ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Stops timing a stage, adding the time since the start to the stage.
+     *
+     * @param stage
+     *            the stage
+     * @param start
+     *            the value returned by {@link #start()}
+     */
+    public void stop(Stage stage, long start) {
+        if (active) {
+            stages.merge(stage, System.nanoTime() - start, Long::sum);
+        }
+    }
+
+    /** {@return the total time of the upload in nanoseconds, or 0 if the trace has not finished} */
+    public long totalNanos() {
+        return totalNanos;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("product=").append(dataProductType).append(" version=").append(productVersion).append(" name=").append(name).append(" outcome=").append(outcome);
+        datasets.forEach((k, v) -> sb.append(' ').append(k.toLowerCase()).append('=').append(v));
+        for (Map.Entry<Stage, Long> e : stages.entrySet()) {
+            sb.append(' ').append(e.getKey().name().toLowerCase()).append("_ms=").append(toMillis(e.getValue()));
+        }
+        return sb.append(" total_ms=").append(toMillis(totalNanos)).toString();
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /** The stages of an upload. */
+    public enum Stage {
+
+        /** Parsing and hashing the dataset. */
+        PARSE,
+
+        /** Calculating the geometries of the dataset. */
+        GEOMETRY,
+
+        /** Storing the dataset and resolving its references. */
+        PERSIST,
+
+        /** Publishing the dataset to subscribers. */
+        PUBLISH;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service;
+
+/**
+ * Receives finished {@link IngestTrace ingest traces}. Beans implementing this interface are picked up by
+ * {@link IngestTracer} and notified of every upload, including failed uploads, regardless of the log level and sample
+ * rate. Stage timings are only available for sampled uploads.
+ */
+@FunctionalInterface
+public interface IngestTraceListener {
+
+    /**
+     * Called when a trace has finished, on the thread that uploaded the dataset.
+     *
+     * @param trace
+     *            the finished trace
+     */
+    void onTrace(IngestTrace trace);
+}
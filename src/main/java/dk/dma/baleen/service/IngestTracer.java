@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Creates {@link IngestTrace ingest traces} for uploaded datasets.
+ * <p>
+ * Details and per-stage timings are logged to the {@code dk.dma.baleen.ingest} logger at debug level. Enable with
+ * {@code logging.level.dk.dma.baleen.ingest=DEBUG}. Only a fraction of uploads are logged and timed per stage when
+ * {@code baleen.ingest.trace.sample-rate} is less than 1. Listeners are notified of the outcome of every upload.
+ */
+@Service
+public class IngestTracer {
+
+    /** The logger traces are logged to. */
+    static final Logger LOGGER = LoggerFactory.getLogger("dk.dma.baleen.ingest");
+
+    /** The listeners notified of finished traces. */
+    private final List<IngestTraceListener> listeners;
+
+    /** The fraction of uploads that are traced. */
+    private final double sampleRate;
+
+    @Autowired
+    public IngestTracer(List<IngestTraceListener> listeners, @Value("${baleen.ingest.trace.sample-rate:1.0}") double sampleRate) {
+        this.listeners = List.copyOf(listeners);
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Begins tracing an upload. The returned trace only records stage timings and details if the upload is sampled, and
+     * ignores everything if no one is interested in it.
+     *
+     * @param dataProductType
+     *            the data product type of the datasets
+     * @param productVersion
+     *            the product version of the datasets
+     * @param name
+     *            what is being traced, may be null if not known yet
+     * @return the trace
+     */
+    public IngestTrace begin(String dataProductType, String productVersion, String name) {
+        boolean log = LOGGER.isDebugEnabled();
+        if (!log && listeners.isEmpty()) {
+            return IngestTrace.DISABLED;
+        }
+        boolean sampled = sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+        if (!sampled && listeners.isEmpty()) {
+            return IngestTrace.DISABLED;
+        }
+        return new IngestTrace(dataProductType, productVersion, name, this, sampled, log);
+    }
+
+    /** Logs a finished trace if it was sampled, and notifies listeners. */
+    void finished(IngestTrace trace) {
+        if (trace.isActive()) {
+            LOGGER.debug("Ingest {}", trace);
+        }
+        for (IngestTraceListener l : listeners) {
+            l.onTrace(trace);
+        }
+    }
+}
@@ -20,26 +20,40 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import dk.baleen.s100.xmlbindings.s124.v1_0_0.utils.S124Utils;
-import dk.dma.niord.s100.xmlbindings.s124.v2_0_0.Dataset;
-import jakarta.xml.bind.JAXBException;
-import org.springframework.beans.factory.annotation.Value;
+import dk.dma.baleen.service.ContentHash;
+import dk.dma.baleen.service.s124.util.S124DatasetStaxReader;
+import dk.dma.baleen.service.s124.util.S124DatasetSummary;
+import jakarta.annotation.PostConstruct;
 
 /**
  * This is temporary hack to get all messages in Niord. Even though that hasn't been promulgated
  * <p>
- * So please disregard the state of the code.
+ * Individual messages are downloaded concurrently on virtual threads, with at most {@code niord.fetch.concurrency}
+ * downloads in flight. Each message is requested conditionally (ETag/If-Modified-Since), and only messages whose
+ * content hash has changed since the last fetch are parsed again.
  */
 // TODO move to Baleen "push"
 @Service
@@ -53,10 +67,44 @@ public class NiordApiCaller2 {
     @Value("${niord.endpoint:}")
     private String niordEndpoint;
 
+    /** The maximum number of messages that are downloaded concurrently. */
+    @Value("${niord.fetch.concurrency:8}")
+    private int concurrency = 8;
+
+    /** The state of each message from the previous fetch, keyed by Niord message id. */
+    private final Map<String, CachedMessage> messages = new ConcurrentHashMap<>();
+
     public NiordApiCaller2() {
         this.client = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL).build();
         this.objectMapper = new ObjectMapper();
     }
+
+    /**
+     * Creates a new caller outside of Spring, for example against a local stub server.
+     *
+     * @param niordEndpoint
+     *            the endpoint of Niord
+     * @param concurrency
+     *            the maximum number of messages that are downloaded concurrently
+     */
+    public NiordApiCaller2(String niordEndpoint, int concurrency) {
+        this();
+        this.niordEndpoint = niordEndpoint;
+        this.concurrency = checkConcurrency(concurrency);
+    }
+
+    /** Validates the concurrency injected by Spring, a concurrency of 0 would block every download forever. */
+    @PostConstruct
+    void validate() {
+        checkConcurrency(concurrency);
+    }
+
+    private static int checkConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("niord.fetch.concurrency must be at least 1, was " + concurrency);
+        }
+        return concurrency;
+    }
     
     public boolean isNiordEndpointConfigured() {
         return niordEndpoint != null && !niordEndpoint.trim().isEmpty();
@@ -64,7 +112,7 @@ public class NiordApiCaller2 {
 
     // Removed main method - not needed in production
 
-    @Scheduled(fixedRate = 60000) // Run every minute (60000 milliseconds)
+    @Scheduled(fixedRateString = "${niord.fetch.interval:60000}") // Run every minute by default
     public void fetchData() {
         try {
             fetchAll();
@@ -75,6 +123,9 @@ public class NiordApiCaller2 {
 
     volatile List<Result> cache;
 
+    /** Whether every listed message was included in the result of the last fetch. */
+    private volatile boolean lastFetchComplete;
+
     public List<Result> getIt() {
         List<Result> c = cache;
         if (c == null) {
@@ -87,52 +138,160 @@ public class NiordApiCaller2 {
         return c;
     }
 
-
-    public List<Result> fetchAll() throws IOException, InterruptedException, JAXBException {
+    public synchronized List<Result> fetchAll() throws IOException, InterruptedException {
         if (!isNiordEndpointConfigured()) {
             logger.warn("Niord endpoint not configured");
             return new ArrayList<>();
         }
-        
+        long start = System.nanoTime();
         String endpoint = niordEndpoint;
 
         HttpRequest request = HttpRequest.newBuilder().uri(URI.create(endpoint + "/rest/public/v1/messages")).GET().build();
 
         HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
 
-        ArrayList<Result> result = new ArrayList<>();
-        if (response.statusCode() == 200) {
-            JsonNode jsonArray = objectMapper.readTree(response.body());
-            for (JsonNode jsonObject : jsonArray) {
-                String id = jsonObject.path("id").asText();
-                String shortId = jsonObject.path("shortId").asText();
-                String mainType = jsonObject.path("mainType").asText();
+        if (response.statusCode() != 200) {
+            throw new IOException("Could not fetch message list from Niord, status code " + response.statusCode());
+        }
 
-                if ("NW".equals(mainType) && shortId != null && !shortId.isEmpty()) {
-                    String xmlUrl = endpoint + "/rest/S-124/messages/" + id;
-                    HttpRequest xmlRequest = HttpRequest.newBuilder().uri(URI.create(xmlUrl)).GET().build();
+        // Find the ids of all navigational warnings, keeping the order of Niord
+        Map<String, String> ids = new LinkedHashMap<>();
+        JsonNode jsonArray = objectMapper.readTree(response.body());
+        for (JsonNode jsonObject : jsonArray) {
+            String id = jsonObject.path("id").asText();
+            String shortId = jsonObject.path("shortId").asText();
+            String mainType = jsonObject.path("mainType").asText();
+
+            if ("NW".equals(mainType) && shortId != null && !shortId.isEmpty()) {
+                ids.put(id, shortId);
+            }
+        }
 
-                    HttpResponse<String> xmlResponse = client.send(xmlRequest, HttpResponse.BodyHandlers.ofString());
-                    String datasetString = xmlResponse.body();
+        // Forget messages that are no longer listed
+        messages.keySet().retainAll(ids.keySet());
 
-                    Dataset dm = null;
+        FetchStatistics statistics = new FetchStatistics();
+        Semaphore permits = new Semaphore(concurrency);
+        List<Future<Optional<Result>>> futures = new ArrayList<>(ids.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Map.Entry<String, String> e : ids.entrySet()) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
                     try {
-                       // System.out.println(xmlUrl);
-                       // System.out.println(datasetString);
-                        dm = S124Utils.unmarshallS124(datasetString);
-                    } catch (Exception e) {
-                        logger.error("Could not deserialize dataset for shortId: {}", shortId, e);
-                        logger.debug("Dataset content: {}", datasetString);
+                        return fetchMessage(endpoint, e.getKey(), e.getValue(), statistics);
+                    } finally {
+                        permits.release();
                     }
+                }));
+            }
+        }
 
-                    if (dm != null) {
-                        result.add(new Result(datasetString, dm));
-                    }
-                }
+        ArrayList<Result> result = new ArrayList<>(futures.size());
+        for (Future<Optional<Result>> f : futures) {
+            try {
+                f.get().ifPresent(result::add);
+            } catch (ExecutionException e) {
+                logger.error("Unexpected failure while fetching message", e.getCause());
             }
         }
+        logger.info("Fetched {} messages from Niord in {} ms ({} downloaded, {} not modified, {} parsed, {} failed)", result.size(),
+                (System.nanoTime() - start) / 1_000_000, statistics.downloaded, statistics.notModified, statistics.parsed, statistics.failed);
+        lastFetchComplete = result.size() == ids.size();
         return cache = result;
     }
 
-    public record Result(String xml, Dataset dataset) {}
-}
\ No newline at end of file
+    /**
+     * Returns whether every message listed by Niord was included in the result of the last fetch. If not, some messages
+     * could not be downloaded or parsed.
+     *
+     * @return whether every listed message was included in the result of the last fetch
+     */
+    public boolean isLastFetchComplete() {
+        return lastFetchComplete;
+    }
+
+    /**
+     * Fetches a single message. Returns the previous result of the message if it has not been modified, or if the
+     * download failed.
+     */
+    private Optional<Result> fetchMessage(String endpoint, String id, String shortId, FetchStatistics statistics) throws InterruptedException {
+        CachedMessage previous = messages.get(id);
+        HttpRequest.Builder b = HttpRequest.newBuilder().uri(URI.create(endpoint + "/rest/S-124/messages/" + id)).GET();
+        if (previous != null) {
+            if (previous.etag() != null) {
+                b.header("If-None-Match", previous.etag());
+            }
+            if (previous.lastModified() != null) {
+                b.header("If-Modified-Since", previous.lastModified());
+            }
+        }
+
+        HttpResponse<byte[]> xmlResponse;
+        try {
+            xmlResponse = client.send(b.build(), HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            statistics.failed.incrementAndGet();
+            logger.error("Could not fetch dataset for shortId: {}", shortId, e);
+            return Optional.ofNullable(previous).map(CachedMessage::result);
+        }
+
+        if (xmlResponse.statusCode() == 304 && previous != null) {
+            statistics.notModified.incrementAndGet();
+            return Optional.of(previous.result());
+        } else if (xmlResponse.statusCode() != 200) {
+            statistics.failed.incrementAndGet();
+            logger.error("Could not fetch dataset for shortId: {}, status code {}", shortId, xmlResponse.statusCode());
+            return Optional.ofNullable(previous).map(CachedMessage::result);
+        }
+        statistics.downloaded.incrementAndGet();
+
+        String etag = xmlResponse.headers().firstValue("ETag").orElse(null);
+        String lastModified = xmlResponse.headers().firstValue("Last-Modified").orElse(null);
+        String contentHash = ContentHash.of(xmlResponse.body());
+
+        // Only parse the dataset again if the content has changed
+        Result result;
+        if (previous != null && previous.result().contentHash().equals(contentHash)) {
+            result = previous.result();
+        } else {
+            String datasetString = new String(xmlResponse.body(), StandardCharsets.UTF_8);
+            try {
+                result = new Result(id, datasetString, contentHash, S124DatasetStaxReader.read(datasetString));
+                statistics.parsed.incrementAndGet();
+            } catch (Exception e) {
+                statistics.failed.incrementAndGet();
+                logger.error("Could not deserialize dataset for shortId: {}", shortId, e);
+                logger.debug("Dataset content: {}", datasetString);
+                messages.remove(id);
+                return Optional.empty();
+            }
+        }
+        messages.put(id, new CachedMessage(etag, lastModified, result));
+        return Optional.of(result);
+    }
+
+    /**
+     * A dataset fetched from Niord.
+     *
+     * @param id
+     *            the Niord id of the message
+     * @param xml
+     *            the dataset
+     * @param contentHash
+     *            the content hash of the dataset
+     * @param summary
+     *            a summary of the dataset
+     */
+    public record Result(String id, String xml, String contentHash, S124DatasetSummary summary) {}
+
+    /** The state of a message from the previous fetch. */
+    private record CachedMessage(String etag, String lastModified, Result result) {}
+
+    /** Statistics for a single fetch. */
+    private static final class FetchStatistics {
+        final AtomicInteger downloaded = new AtomicInteger();
+        final AtomicInteger notModified = new AtomicInteger();
+        final AtomicInteger parsed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+    }
+}
@@ -15,15 +15,24 @@
  */
 package dk.dma.baleen.service.s124.controller;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
-import dk.dma.baleen.service.s124.NiordApiCaller;
+import dk.dma.baleen.service.dto.DatasetUploadDto;
+import dk.dma.baleen.service.dto.DatasetUploadGmlDto;
 import dk.dma.baleen.service.s124.service.S124Service;
+import dk.dma.baleen.service.s124.service.S124Service.BulkUploadResult;
 
 /**
  *
@@ -32,6 +41,8 @@ import dk.dma.baleen.service.s124.service.S124Service;
 @RequestMapping("/api")
 public class S124UploadController {
 
+    private static final Logger logger = LoggerFactory.getLogger(S124UploadController.class);
+
     String XML="""
 <?xml version="1.0" encoding="UTF-8" standalone="yes"?>
 <ns4:Dataset xmlns:ns1="http://www.opengis.net/gml/3.2" xmlns:ns2="http://www.iho.int/s100gml/5.0" xmlns:ns3="http://www.w3.org/1999/xlink" xmlns:ns4="http://www.iho.int/S124/1.0" ns1:id="D">
@@ -109,20 +120,39 @@ public class S124UploadController {
     @Autowired
     S124Service service;
 
-    @Autowired
-    NiordApiCaller niordAPI;
-
     @PostMapping("/upload")
     public String accept(@RequestBody String xmlDataset) throws Exception {
-        System.out.println("Recieved " + xmlDataset);
+        logger.debug("Received dataset of {} characters", xmlDataset.length());
         service.upload(xmlDataset);
-        niordAPI.fetchAll();
         return "ok";
     }
 
+    /**
+     * Uploads a batch of datasets in a single transaction.
+     *
+     * @param datasets
+     *            the datasets to upload
+     * @return the result of the upload, including the datasets that could not be parsed
+     * @throws ResponseStatusException
+     *             with status 400 if the request has no datasets, or a dataset without gml
+     */
+    @PostMapping("/upload/bulk")
+    public BulkUploadResult acceptAll(@RequestBody DatasetUploadDto datasets) {
+        if (datasets == null || datasets.gmlDatasets() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "gmlDatasets is required");
+        }
+        List<String> gmls = new ArrayList<>(datasets.gmlDatasets().size());
+        for (DatasetUploadGmlDto d : datasets.gmlDatasets()) {
+            if (d == null || d.gml() == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "gmlDatasets[" + gmls.size() + "] has no gml");
+            }
+            gmls.add(d.gml());
+        }
+        return service.uploadAll(gmls);
+    }
+
     @PostMapping("/uploaddummy")
     public String acceptDummy(String xmlDataset) throws Exception {
-        System.out.println("Recieved " + xmlDataset);
         service.upload(XML);
         return "ok";
     }
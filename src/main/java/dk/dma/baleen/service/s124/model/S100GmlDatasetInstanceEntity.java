@@ -15,16 +15,20 @@
  */
 package dk.dma.baleen.service.s124.model;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 
 import org.springframework.data.annotation.CreatedDate;
 
+import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
-import jakarta.persistence.Lob;
+import jakarta.persistence.JoinColumn;
 import jakarta.persistence.MappedSuperclass;
+import jakarta.persistence.OneToOne;
 
 /**
  *
@@ -32,6 +36,10 @@ import jakarta.persistence.MappedSuperclass;
 @MappedSuperclass
 public abstract class S100GmlDatasetInstanceEntity {
 
+    /** A SHA-256 hash of the gml, used for detecting changes to the dataset. */
+    @Column(length = 64)
+    private String contentHash;
+
     @CreatedDate
     @Column(name = "created_date", nullable = false, updatable = false)
     private Instant createdAt;
@@ -40,14 +48,26 @@ public abstract class S100GmlDatasetInstanceEntity {
     @Column
     private String dataProductVersion;
 
-    @Lob
-    @Column
-    private String gml;
+    /** The compressed GML, loaded only when the GML is needed. */
+    @OneToOne(fetch = FetchType.LAZY, cascade = CascadeType.ALL, orphanRemoval = true)
+    @JoinColumn(name = "payload_id")
+    private S100GmlPayloadEntity payload;
+
+    /** The size of the uncompressed GML in bytes, so it is known without loading the payload. */
+    @Column(name = "gml_size")
+    private Integer gmlSize;
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    /**
+     * @return the contentHash
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
     /**
      * @return the createdAt
      */
@@ -63,10 +83,44 @@ public abstract class S100GmlDatasetInstanceEntity {
     }
 
     /**
-     * @return the gml
+     * Returns the GML, decompressing it.
+     *
+     * @return the gml, or null if no gml has been set
      */
     public String getGml() {
-        return gml;
+        byte[] gml = getGmlBytes();
+        return gml == null ? null : new String(gml, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the UTF-8 encoded GML, decompressing it. This loads the payload if not already loaded.
+     *
+     * @return the gml, or null if no gml has been set
+     */
+    public byte[] getGmlBytes() {
+        return payload == null ? null : payload.getGml();
+    }
+
+    /**
+     * Returns whether or not the dataset has any GML. Does not load the payload.
+     *
+     * @return whether or not the dataset has any GML
+     */
+    public boolean hasGml() {
+        return payload != null;
+    }
+
+    /**
+     * Returns the size of the UTF-8 encoded GML in bytes. Only loads the payload for datasets stored before the size was
+     * persisted.
+     *
+     * @return the size of the gml, or 0 if no gml has been set
+     */
+    public int getGmlSize() {
+        if (gmlSize != null) {
+            return gmlSize;
+        }
+        return payload == null ? 0 : payload.getSize();
     }
 
     /**
@@ -76,6 +130,13 @@ public abstract class S100GmlDatasetInstanceEntity {
         return id;
     }
 
+    /**
+     * @param contentHash the contentHash to set
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
     /**
      * @param dataProductVersion the dataProductVersion to set
      */
@@ -84,10 +145,19 @@ public abstract class S100GmlDatasetInstanceEntity {
     }
 
     /**
-     * @param gml the gml to set
+     * Compresses and sets the GML.
+     *
+     * @param gml
+     *            the gml to set
      */
     public void setGml(String gml) {
-        this.gml = gml;
+        byte[] bytes = gml.getBytes(StandardCharsets.UTF_8);
+        gmlSize = bytes.length;
+        if (payload == null) {
+            payload = new S100GmlPayloadEntity(bytes);
+        } else {
+            payload.setGml(bytes);
+        }
     }
 
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124.model;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.hibernate.Length;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * The deflate compressed GML of a dataset.
+ * <p>
+ * The GML is kept in its own table and is only loaded when the data of a dataset is actually needed, not when datasets
+ * are listed or matched against queries. GML compresses very well, typically to a tenth of its size or less.
+ */
+@Entity
+@Table(name = S100GmlPayloadEntity.TABLE_NAME)
+public class S100GmlPayloadEntity {
+
+    /** The name of the table. */
+    public static final String TABLE_NAME = "s100_gml_payload";
+
+    /** The compression level used, deflate's default level which balances speed against compression ratio. */
+    private static final int COMPRESSION_LEVEL = Deflater.DEFAULT_COMPRESSION;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * The compressed GML. Mapped as a plain binary column ({@code bytea} on PostgreSQL) rather than a large object, as
+     * PostgreSQL large objects are not deleted together with the row referencing them.
+     */
+    @JdbcTypeCode(SqlTypes.VARBINARY)
+    @Column(nullable = false, length = Length.LONG32)
+    private byte[] data;
+
+    /** The size of the uncompressed GML in bytes. */
+    @Column(nullable = false)
+    private int size;
+
+    protected S100GmlPayloadEntity() {}
+
+    S100GmlPayloadEntity(byte[] gml) {
+        setGml(gml);
+    }
+
+    /**
+     * @return the compressed size in bytes
+     */
+    public int getCompressedSize() {
+        return data.length;
+    }
+
+    /**
+     * @return the id
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Decompresses the GML.
+     *
+     * @return the uncompressed GML
+     */
+    public byte[] getGml() {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] result = new byte[size];
+            int n = 0;
+            while (n < size && !inflater.finished()) {
+                int read = inflater.inflate(result, n, size - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != size) {
+                throw new IllegalStateException("Corrupt GML payload " + id + ", expected " + size + " bytes but got " + n);
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt GML payload " + id, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the size of the uncompressed GML in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Compresses and sets the GML.
+     *
+     * @param gml
+     *            the uncompressed GML
+     */
+    void setGml(byte[] gml) {
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+        try {
+            deflater.setInput(gml);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, gml.length / 8));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            this.data = out.toByteArray();
+            this.size = gml.length;
+        } finally {
+            deflater.end();
+        }
+    }
+}
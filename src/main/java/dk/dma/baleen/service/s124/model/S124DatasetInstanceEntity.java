@@ -15,34 +15,67 @@
  */
 package dk.dma.baleen.service.s124.model;
 
-import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
 
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.springframework.data.jpa.domain.support.AuditingEntityListener;
 
 import dk.dma.baleen.service.spi.DataSet;
+import jakarta.persistence.CollectionTable;
 import jakarta.persistence.Column;
+import jakarta.persistence.ElementCollection;
 import jakarta.persistence.Entity;
 import jakarta.persistence.EntityListeners;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.JoinTable;
 import jakarta.persistence.ManyToMany;
+import jakarta.persistence.Table;
 
 /**
  *
  */
 @Entity
 @EntityListeners(AuditingEntityListener.class)
+@Table(name = S124DatasetInstanceEntity.TABLE_NAME, indexes = { @Index(name = "s124dataset_valid_from_idx", columnList = "valid_from"),
+        @Index(name = "s124dataset_valid_to_idx", columnList = "valid_to"), @Index(name = "s124dataset_bbox_x_idx", columnList = "min_x, max_x"),
+        @Index(name = "s124dataset_bbox_y_idx", columnList = "min_y, max_y") })
 public class S124DatasetInstanceEntity extends S100GmlDatasetInstanceEntity implements DataSet {
 
+    /**
+     * The name of the table. The spatial index on the geometry is created by
+     * {@link dk.dma.baleen.service.s124.repository.S124SpatialIndexInitializer}.
+     */
+    public static final String TABLE_NAME = "s124dataset_instance_entity";
+
     /** unlocode and wkt */
     @Column
     private Geometry geometry;
 
+    /**
+     * A simplified geometry with few vertices that covers {@link #geometry}. Used for rejecting datasets without looking
+     * at the full geometry.
+     */
+    @Column(name = "coarse_geometry")
+    private Geometry coarseGeometry;
+
+    /** The envelope of the geometry, updated whenever the geometry is set. Null if the geometry is empty. */
+    @Column(name = "min_x")
+    private Double minX;
+
+    @Column(name = "min_y")
+    private Double minY;
+
+    @Column(name = "max_x")
+    private Double maxX;
+
+    @Column(name = "max_y")
+    private Double maxY;
+
     @Column(unique = true)
     private String mrn;
 
@@ -54,13 +87,23 @@ public class S124DatasetInstanceEntity extends S100GmlDatasetInstanceEntity impl
     )
     private Set<S124DatasetInstanceEntity> references = new HashSet<>();
 
+    /**
+     * The mrns of referenced datasets that have not been uploaded yet. They are moved to {@link #references} once the
+     * referenced dataset is uploaded.
+     */
+    @ElementCollection
+    @CollectionTable(name = "s124_dataset_pending_references", joinColumns = @JoinColumn(name = "dataset_id"),
+        indexes = @Index(name = "s124dataset_pending_mrn_idx", columnList = "referenced_mrn"))
+    @Column(name = "referenced_mrn")
+    private Set<String> pendingReferences = new HashSet<>();
+
     @Column(unique = true)
     private UUID uuid;
 
-    @Column
+    @Column(name = "valid_from")
     private Instant validFrom;
 
-    @Column
+    @Column(name = "valid_to")
     private Instant validTo;
 
     /**
@@ -81,6 +124,20 @@ public class S124DatasetInstanceEntity extends S100GmlDatasetInstanceEntity impl
         return geometry;
     }
 
+    /**
+     * @return the coarse geometry
+     */
+    public Geometry getCoarseGeometry() {
+        return coarseGeometry;
+    }
+
+    /**
+     * @return the envelope of the geometry, or null if it has not been calculated
+     */
+    public Envelope getEnvelope() {
+        return minX == null ? null : new Envelope(minX, maxX, minY, maxY);
+    }
+
     /**
      * @return the mrn
      */
@@ -88,6 +145,13 @@ public class S124DatasetInstanceEntity extends S100GmlDatasetInstanceEntity impl
         return mrn;
     }
 
+    /**
+     * @return the mrns of referenced datasets that have not been uploaded yet
+     */
+    public Set<String> getPendingReferences() {
+        return pendingReferences;
+    }
+
     /**
      * @return the references to other datasets
      */
@@ -127,11 +191,30 @@ public class S124DatasetInstanceEntity extends S100GmlDatasetInstanceEntity impl
     }
 
     /**
+     * @param coarseGeometry
+     *            the coarse geometry to set, must cover the geometry
+     */
+    public void setCoarseGeometry(Geometry coarseGeometry) {
+        this.coarseGeometry = coarseGeometry;
+    }
+
+    /**
+     * Sets the geometry and updates the envelope.
+     *
      * @param geometry
      *            the geometry to set
      */
     public void setGeometry(Geometry geometry) {
         this.geometry = geometry;
+        Envelope e = geometry == null ? null : geometry.getEnvelopeInternal();
+        if (e == null || e.isNull()) {
+            minX = minY = maxX = maxY = null;
+        } else {
+            minX = e.getMinX();
+            minY = e.getMinY();
+            maxX = e.getMaxX();
+            maxY = e.getMaxY();
+        }
     }
 
     /**
@@ -176,7 +259,19 @@ public class S124DatasetInstanceEntity extends S100GmlDatasetInstanceEntity impl
     /** {@inheritDoc} */
     @Override
     public byte[] toByteArray() {
-        return getGml().getBytes(StandardCharsets.UTF_8);
+        return getGmlBytes();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String contentHash() {
+        return getContentHash();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+        return getGmlSize();
     }
 
     /** {@inheritDoc} */
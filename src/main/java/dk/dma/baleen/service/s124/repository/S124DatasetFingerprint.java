@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124.repository;
+
+import java.time.Instant;
+
+/**
+ * The parts of a stored dataset needed to decide whether it has changed, without loading the dataset itself.
+ *
+ * @param mrn
+ *            the mrn of the dataset
+ * @param contentHash
+ *            the content hash of the gml of the dataset, may be null for datasets stored before hashes were recorded
+ * @param validTo
+ *            when the dataset is no longer valid, or null if it is valid indefinitely
+ */
+public record S124DatasetFingerprint(String mrn, String contentHash, Instant validTo) {}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124.repository;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * The parts of a stored dataset needed for answering spatial and temporal queries in memory.
+ *
+ * @param id
+ *            the database id of the dataset
+ * @param uuid
+ *            the uuid of the dataset
+ * @param geometry
+ *            the geometry of the dataset
+ * @param validFrom
+ *            when the dataset becomes valid, or null if it has always been valid
+ * @param validTo
+ *            when the dataset is no longer valid, or null if it is valid indefinitely
+ */
+public record S124DatasetIndexEntry(Long id, UUID uuid, Geometry geometry, Instant validFrom, Instant validTo) {
+
+    /**
+     * Returns whether the dataset is active, that is it has not expired (or been cancelled) at the specified time.
+     *
+     * @param now
+     *            the time
+     * @return whether the dataset is active
+     */
+    public boolean isActiveAt(Instant now) {
+        return validTo == null || validTo.isAfter(now);
+    }
+
+    /**
+     * Returns whether the dataset is valid at some point in the specified period.
+     *
+     * @param from
+     *            the start of the period, or null for no lower bound
+     * @param to
+     *            the end of the period, or null for no upper bound
+     * @return whether the dataset is valid in the period
+     */
+    public boolean isValidIn(Instant from, Instant to) {
+        return (from == null || validTo == null || !validTo.isBefore(from)) && (to == null || validFrom == null || !validFrom.isAfter(to));
+    }
+}
@@ -15,7 +15,11 @@
  */
 package dk.dma.baleen.service.s124.repository;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -27,6 +31,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import dk.dma.baleen.service.s124.model.S100GmlPayloadEntity;
 import dk.dma.baleen.service.s124.model.S124DatasetInstanceEntity;
 
 /**
@@ -35,21 +40,127 @@ import dk.dma.baleen.service.s124.model.S124DatasetInstanceEntity;
 @Repository
 public interface S124DatasetInstanceRepository extends JpaRepository<S124DatasetInstanceEntity, Long> {
 
-    @Query("""
+    /**
+     * Finds all active datasets matching the specified filters. The spatial and temporal filtering, as well as the
+     * pagination, is done by the database.
+     * <p>
+     * Only datasets that have not expired (or been cancelled) are returned, see
+     * {@link dk.dma.baleen.service.s124.service.S124DatasetIndex}.
+     *
+     * @param uuid
+     *            the uuid of the dataset, or null for any dataset
+     * @param geometry
+     *            the area the dataset must intersect, or null for any area
+     * @param fromTime
+     *            the start (UTC) of the period the dataset must be valid in, or null for no lower bound
+     * @param toTime
+     *            the end (UTC) of the period the dataset must be valid in, or null for no upper bound
+     * @param pageable
+     *            the page to return
+     * @return the matching datasets
+     */
+    default Page<S124DatasetInstanceEntity> findDatasets(UUID uuid, Geometry geometry, LocalDateTime fromTime, LocalDateTime toTime,
+            Pageable pageable) {
+        Instant from = fromTime == null ? null : fromTime.toInstant(ZoneOffset.UTC);
+        Instant to = toTime == null ? null : toTime.toInstant(ZoneOffset.UTC);
+        if (geometry == null) {
+            return findDatasets(uuid, from, to, Instant.now(), pageable);
+        }
+        return findDatasetsIntersecting(uuid, geometry, from, to, Instant.now(), pageable);
+    }
+
+    // Datasets without a validFrom or validTo are valid from/until forever, datasets that have expired are never returned
+    @Query(value = """
             SELECT s FROM S124DatasetInstanceEntity s
             WHERE (:uuid IS NULL OR s.uuid = :uuid)
-            AND (:fromTime IS NULL OR s.validTo >= :fromTime)
-            AND (:toTime IS NULL OR s.validFrom <= :toTime)
+            AND (:fromTime IS NULL OR s.validTo IS NULL OR s.validTo >= :fromTime)
+            AND (:toTime IS NULL OR s.validFrom IS NULL OR s.validFrom <= :toTime)
+            AND (s.validTo IS NULL OR s.validTo > :now)
+            """, countQuery = """
+            SELECT count(s) FROM S124DatasetInstanceEntity s
+            WHERE (:uuid IS NULL OR s.uuid = :uuid)
+            AND (:fromTime IS NULL OR s.validTo IS NULL OR s.validTo >= :fromTime)
+            AND (:toTime IS NULL OR s.validFrom IS NULL OR s.validFrom <= :toTime)
+            AND (s.validTo IS NULL OR s.validTo > :now)
             """)
-// removed             AND (:geometry IS NULL OR ST_Intersects(s.geometry, :geometry) = true)
+    Page<S124DatasetInstanceEntity> findDatasets(@Param("uuid") UUID uuid, @Param("fromTime") Instant fromTime, @Param("toTime") Instant toTime,
+            @Param("now") Instant now, Pageable pageable);
 
-    Page<S124DatasetInstanceEntity> findDatasets(
-            @Param("uuid") UUID uuid,
-            @Param("geometry") Geometry geometry,
-            @Param("fromTime") LocalDateTime fromTime,
-            @Param("toTime") LocalDateTime toTime,
-            Pageable pageable
-    );
+    // Geometry parameters cannot be tested for null, so this is a separate query
+    @Query(value = """
+            SELECT s FROM S124DatasetInstanceEntity s
+            WHERE st_intersects(s.geometry, :geometry) = true
+            AND (:uuid IS NULL OR s.uuid = :uuid)
+            AND (:fromTime IS NULL OR s.validTo IS NULL OR s.validTo >= :fromTime)
+            AND (:toTime IS NULL OR s.validFrom IS NULL OR s.validFrom <= :toTime)
+            AND (s.validTo IS NULL OR s.validTo > :now)
+            """, countQuery = """
+            SELECT count(s) FROM S124DatasetInstanceEntity s
+            WHERE st_intersects(s.geometry, :geometry) = true
+            AND (:uuid IS NULL OR s.uuid = :uuid)
+            AND (:fromTime IS NULL OR s.validTo IS NULL OR s.validTo >= :fromTime)
+            AND (:toTime IS NULL OR s.validFrom IS NULL OR s.validFrom <= :toTime)
+            AND (s.validTo IS NULL OR s.validTo > :now)
+            """)
+    Page<S124DatasetInstanceEntity> findDatasetsIntersecting(@Param("uuid") UUID uuid, @Param("geometry") Geometry geometry,
+            @Param("fromTime") Instant fromTime, @Param("toTime") Instant toTime, @Param("now") Instant now, Pageable pageable);
+
+    /**
+     * Returns the coarse geometry of all active datasets whose envelope intersects the specified envelope and that
+     * matches the other filters, ordered by id. This is a plain numeric comparison that needs no spatial support from the database.
+     * Datasets stored before envelopes were calculated are always returned, with their coarse geometry being null.
+     *
+     * @param uuid
+     *            the uuid of the dataset, or null for any dataset
+     * @param minX
+     *            the minimum x of the envelope
+     * @param minY
+     *            the minimum y of the envelope
+     * @param maxX
+     *            the maximum x of the envelope
+     * @param maxY
+     *            the maximum y of the envelope
+     * @param fromTime
+     *            the start of the period the dataset must be valid in, or null for no lower bound
+     * @param toTime
+     *            the end of the period the dataset must be valid in, or null for no upper bound
+     * @param now
+     *            the current time, datasets that expired before it are not returned
+     * @return the candidates
+     */
+    @Query("""
+            SELECT new dk.dma.baleen.service.s124.repository.S124DatasetGeometry(s.id, s.coarseGeometry)
+            FROM S124DatasetInstanceEntity s
+            WHERE (s.minX IS NULL OR (s.minX <= :maxX AND s.maxX >= :minX AND s.minY <= :maxY AND s.maxY >= :minY))
+            AND (:uuid IS NULL OR s.uuid = :uuid)
+            AND (:fromTime IS NULL OR s.validTo IS NULL OR s.validTo >= :fromTime)
+            AND (:toTime IS NULL OR s.validFrom IS NULL OR s.validFrom <= :toTime)
+            AND (s.validTo IS NULL OR s.validTo > :now)
+            ORDER BY s.id
+            """)
+    List<S124DatasetGeometry> findCoarseGeometriesInEnvelope(@Param("uuid") UUID uuid, @Param("minX") double minX, @Param("minY") double minY,
+            @Param("maxX") double maxX, @Param("maxY") double maxY, @Param("fromTime") Instant fromTime, @Param("toTime") Instant toTime,
+            @Param("now") Instant now);
+
+    /**
+     * Returns the geometry of the specified datasets.
+     *
+     * @param ids
+     *            the ids of the datasets
+     * @return the geometries
+     */
+    @Query("SELECT new dk.dma.baleen.service.s124.repository.S124DatasetGeometry(s.id, s.geometry) FROM S124DatasetInstanceEntity s WHERE s.id IN :ids")
+    List<S124DatasetGeometry> findGeometries(@Param("ids") List<Long> ids);
+
+    /**
+     * Returns the compressed GML of the specified dataset.
+     *
+     * @param id
+     *            the id of the dataset
+     * @return the payload of the dataset, or empty if the dataset does not exist or has no GML
+     */
+    @Query("SELECT s.payload FROM S124DatasetInstanceEntity s WHERE s.id = :id")
+    Optional<S100GmlPayloadEntity> findPayload(@Param("id") Long id);
 
     /**
      * Retrieves an entity by its mrn.
@@ -59,4 +170,58 @@ public interface S124DatasetInstanceRepository extends JpaRepository<S124Dataset
      * @throws IllegalArgumentException if {@literal mrn} is {@literal null}.
      */
     Optional<S124DatasetInstanceEntity> findByMrn(String mrn);
+
+    /**
+     * Retrieves all entities with one of the specified mrns.
+     *
+     * @param mrns
+     *            the mrns
+     * @return the entities with one of the specified mrns
+     */
+    List<S124DatasetInstanceEntity> findAllByMrnIn(Collection<String> mrns);
+
+    /**
+     * Returns the ids of the datasets with one of the specified mrns.
+     *
+     * @param mrns
+     *            the mrns
+     * @return the mrn and id of every matching dataset
+     */
+    @Query("SELECT new dk.dma.baleen.service.s124.repository.S124DatasetMrnId(s.mrn, s.id) FROM S124DatasetInstanceEntity s WHERE s.mrn IN :mrns")
+    List<S124DatasetMrnId> findIdsByMrnIn(@Param("mrns") Collection<String> mrns);
+
+    /**
+     * Returns the datasets with a pending reference to one of the specified mrns.
+     *
+     * @param mrns
+     *            the mrns of the referenced datasets
+     * @return the datasets waiting for one of the datasets
+     */
+    @Query("SELECT DISTINCT s FROM S124DatasetInstanceEntity s JOIN s.pendingReferences p WHERE p IN :mrns")
+    List<S124DatasetInstanceEntity> findAllWithPendingReferencesTo(@Param("mrns") Collection<String> mrns);
+
+    /**
+     * Returns the fingerprint of every stored dataset.
+     *
+     * @return the fingerprint of every stored dataset
+     */
+    // Datasets without gml (stored before gml was compressed) have no content hash, so they are uploaded again
+    @Query("""
+            SELECT new dk.dma.baleen.service.s124.repository.S124DatasetFingerprint(s.mrn, CASE WHEN s.payload IS NULL THEN NULL ELSE s.contentHash END,
+            s.validTo) FROM S124DatasetInstanceEntity s
+            """)
+    List<S124DatasetFingerprint> findAllFingerprints();
+
+    /**
+     * Returns the index entries of all datasets that are still valid at the specified time.
+     *
+     * @param now
+     *            the current time
+     * @return the index entries of all datasets that are still valid
+     */
+    @Query("""
+            SELECT new dk.dma.baleen.service.s124.repository.S124DatasetIndexEntry(s.id, s.uuid, s.geometry, s.validFrom, s.validTo)
+            FROM S124DatasetInstanceEntity s WHERE s.validTo IS NULL OR s.validTo > :now
+            """)
+    List<S124DatasetIndexEntry> findActiveIndexEntries(@Param("now") Instant now);
 }
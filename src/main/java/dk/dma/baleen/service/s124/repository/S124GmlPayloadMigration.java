@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124.repository;
+
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import dk.dma.baleen.service.s124.model.S100GmlPayloadEntity;
+import dk.dma.baleen.service.s124.model.S124DatasetInstanceEntity;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Moves the GML of datasets stored before GML was kept compressed in its own payload table, from the legacy
+ * {@code gml} column into a payload. The legacy column is left in place but cleared, so the migration only does work
+ * the first time the application starts on an old database.
+ * <p>
+ * On PostgreSQL the legacy column is a large object ({@code oid}), which is not deleted when the column is cleared, so
+ * the large object is unlinked first. For the same reason the payload is now stored as {@code bytea}, and a payload
+ * column created as a large object by an earlier version is converted. Large objects orphaned by rewriting payloads
+ * before the conversion are not referenced by any row, and can be removed with PostgreSQL's {@code vacuumlo}.
+ * <p>
+ * Runs while the application context is created, so it has completed before any request is served.
+ */
+@Component
+public class S124GmlPayloadMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(S124GmlPayloadMigration.class);
+
+    /** The column the GML was stored in before it was moved to the payload table. */
+    static final String LEGACY_COLUMN = "gml";
+
+    /** The column the compressed GML is stored in. */
+    static final String PAYLOAD_COLUMN = "data";
+
+    /** The type name PostgreSQL reports for large object columns. */
+    private static final String LARGE_OBJECT = "oid";
+
+    /** The number of datasets migrated per transaction. */
+    private static final int BATCH_SIZE = 100;
+
+    @Autowired
+    DataSource dataSource;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @PostConstruct
+    public void migrate() {
+        try {
+            TransactionTemplate tt = new TransactionTemplate(transactionManager);
+            // Must be converted first, as payloads are written as bytea
+            if (LARGE_OBJECT.equalsIgnoreCase(columnType(S100GmlPayloadEntity.TABLE_NAME, PAYLOAD_COLUMN))) {
+                tt.executeWithoutResult(status -> convertPayloadColumn(new JdbcTemplate(dataSource)));
+                logger.info("Converted the GML payloads from large objects to bytea");
+            }
+
+            String legacyType = columnType(S124DatasetInstanceEntity.TABLE_NAME, LEGACY_COLUMN);
+            if (legacyType == null) {
+                return;
+            }
+            boolean largeObjects = LARGE_OBJECT.equalsIgnoreCase(legacyType);
+            JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+            jdbc.setMaxRows(BATCH_SIZE);
+            int total = 0;
+            for (int n; (n = tt.execute(status -> migrateBatch(jdbc, largeObjects))) > 0;) {
+                total += n;
+            }
+            if (total > 0) {
+                logger.info("Moved the GML of {} S-124 datasets to the payload table", total);
+            }
+        } catch (RuntimeException | SQLException e) {
+            // The datasets are still there, and will be migrated the next time the application starts
+            logger.error("Could not move the GML of S-124 datasets to the payload table", e);
+        }
+    }
+
+    private int migrateBatch(JdbcTemplate jdbc, boolean largeObjects) {
+        String table = S124DatasetInstanceEntity.TABLE_NAME;
+        Map<Long, String> legacy = new LinkedHashMap<>();
+        jdbc.query("SELECT id, " + LEGACY_COLUMN + " FROM " + table + " WHERE " + LEGACY_COLUMN + " IS NOT NULL AND payload_id IS NULL ORDER BY id",
+                (RowCallbackHandler) rs -> {
+                    Clob clob = rs.getClob(2);
+                    legacy.put(rs.getLong(1), clob.getSubString(1, (int) clob.length()));
+                });
+        if (legacy.isEmpty()) {
+            return 0;
+        }
+        for (Map.Entry<Long, String> e : legacy.entrySet()) {
+            S124DatasetInstanceEntity entity = entityManager.find(S124DatasetInstanceEntity.class, e.getKey());
+            if (entity != null) {
+                entity.setGml(e.getValue()); // Creates the payload and sets the size
+            }
+        }
+        entityManager.flush();
+        if (largeObjects) {
+            // Clearing the column does not delete the large object it references
+            String in = String.join(",", Collections.nCopies(legacy.size(), "?"));
+            jdbc.queryForObject("SELECT count(lo_unlink(" + LEGACY_COLUMN + ")) FROM " + table + " WHERE id IN (" + in + ")", Long.class,
+                    legacy.keySet().toArray());
+        }
+        List<Object[]> ids = new ArrayList<>(legacy.size());
+        for (Long id : legacy.keySet()) {
+            ids.add(new Object[] { id });
+        }
+        jdbc.batchUpdate("UPDATE " + table + " SET " + LEGACY_COLUMN + " = NULL WHERE id = ?", ids);
+        return legacy.size();
+    }
+
+    /** Copies every payload out of its large object into a bytea column, and unlinks the large object. PostgreSQL only. */
+    private static void convertPayloadColumn(JdbcTemplate jdbc) {
+        String table = S100GmlPayloadEntity.TABLE_NAME;
+        String tmp = PAYLOAD_COLUMN + "_bytea";
+        jdbc.execute("ALTER TABLE " + table + " ADD COLUMN " + tmp + " bytea");
+        jdbc.execute("UPDATE " + table + " SET " + tmp + " = lo_get(" + PAYLOAD_COLUMN + ")");
+        jdbc.queryForObject("SELECT count(lo_unlink(" + PAYLOAD_COLUMN + ")) FROM " + table + " WHERE " + PAYLOAD_COLUMN + " IS NOT NULL", Long.class);
+        jdbc.execute("ALTER TABLE " + table + " DROP COLUMN " + PAYLOAD_COLUMN);
+        jdbc.execute("ALTER TABLE " + table + " RENAME COLUMN " + tmp + " TO " + PAYLOAD_COLUMN);
+        jdbc.execute("ALTER TABLE " + table + " ALTER COLUMN " + PAYLOAD_COLUMN + " SET NOT NULL");
+    }
+
+    /** Returns the type name of the specified column, or null if the column does not exist. */
+    private String columnType(String tableName, String columnName) throws SQLException {
+        try (Connection c = dataSource.getConnection()) {
+            DatabaseMetaData md = c.getMetaData();
+            // Unquoted identifiers are stored in upper case by H2 and in lower case by PostgreSQL
+            for (String table : List.of(tableName, tableName.toUpperCase())) {
+                try (ResultSet rs = md.getColumns(null, null, table, null)) {
+                    while (rs.next()) {
+                        if (columnName.equalsIgnoreCase(rs.getString("COLUMN_NAME"))) {
+                            return rs.getString("TYPE_NAME");
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124.repository;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import dk.dma.baleen.service.s124.model.S124DatasetInstanceEntity;
+
+/**
+ * Creates the spatial index on the geometry of S-124 datasets, which cannot be expressed with JPA annotations. Uses a
+ * GiST index on PostgreSQL (PostGIS) and a spatial index on H2 (H2GIS). On H2 the H2GIS functions, used for spatial
+ * queries, are loaded as well.
+ */
+@Component
+public class S124SpatialIndexInitializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(S124SpatialIndexInitializer.class);
+
+    static final String INDEX_NAME = "s124dataset_geometry_idx";
+
+    @Autowired
+    DataSource dataSource;
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void createSpatialIndex() {
+        try (Connection c = dataSource.getConnection(); Statement s = c.createStatement()) {
+            String database = c.getMetaData().getDatabaseProductName();
+            String table = S124DatasetInstanceEntity.TABLE_NAME;
+            if (database.startsWith("PostgreSQL")) {
+                s.execute("CREATE INDEX IF NOT EXISTS " + INDEX_NAME + " ON " + table + " USING GIST (geometry)");
+            } else if (database.startsWith("H2")) {
+                s.execute("CREATE ALIAS IF NOT EXISTS H2GIS_SPATIAL FOR \"org.h2gis.functions.factory.H2GISFunctions.load\"");
+                s.execute("CALL H2GIS_SPATIAL()");
+                s.execute("CREATE SPATIAL INDEX IF NOT EXISTS " + INDEX_NAME + " ON " + table + "(geometry)");
+            } else {
+                logger.warn("No spatial index created for S-124 datasets, unsupported database {}", database);
+                return;
+            }
+            logger.info("Spatial index {} on {} available", INDEX_NAME, table);
+        } catch (SQLException e) {
+            // Queries still work without the index, they are just slower
+            logger.error("Could not create spatial index " + INDEX_NAME, e);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.grad.secom.core.models.enums.SECOM_DataProductType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import dk.dma.baleen.service.BaleenMetrics;
+import dk.dma.baleen.service.s124.NiordApiCaller2;
+import dk.dma.baleen.service.s124.NiordApiCaller2.Result;
+import dk.dma.baleen.service.s124.repository.S124DatasetFingerprint;
+import dk.dma.baleen.service.s124.repository.S124DatasetInstanceRepository;
+import dk.dma.baleen.service.s124.service.S124Service.UploadOutcome;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Incrementally synchronizes the stored S-124 datasets with the messages in Niord.
+ * <p>
+ * The messages in Niord are diffed against the stored datasets by mrn and content hash. Only new and changed datasets
+ * are uploaded (and published to subscribers), and datasets that are no longer in Niord are cancelled. Changes are
+ * applied in batches, each in its own transaction.
+ */
+@Service
+public class NiordSyncService {
+
+    private static final Logger logger = LoggerFactory.getLogger(NiordSyncService.class);
+
+    @Autowired
+    NiordApiCaller2 niordApi;
+
+    @Autowired
+    S124DatasetInstanceRepository repository;
+
+    @Autowired
+    S124Service s124Service;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    /** The maximum number of changes applied in a single transaction. */
+    @Value("${niord.sync.batch-size:50}")
+    int batchSize;
+
+    /**
+     * Fetches all messages from Niord and applies the differences to the stored datasets.
+     *
+     * @return the result of the synchronization
+     * @throws Exception
+     *             if the messages could not be fetched from Niord
+     */
+    public synchronized SyncResult sync() throws Exception {
+        long start = System.nanoTime();
+        List<Result> results = niordApi.fetchAll();
+
+        // Niord might contain the same message more than once, the last one wins
+        Map<String, Result> niord = new LinkedHashMap<>();
+        for (Result r : results) {
+            niord.put(r.summary().mrn(), r);
+        }
+
+        Map<String, S124DatasetFingerprint> stored = new HashMap<>();
+        for (S124DatasetFingerprint f : repository.findAllFingerprints()) {
+            stored.put(f.mrn(), f);
+        }
+
+        SyncCounts counts = new SyncCounts();
+        List<Result> changed = new ArrayList<>();
+        for (Result r : niord.values()) {
+            S124DatasetFingerprint f = stored.get(r.summary().mrn());
+            if (f != null && r.contentHash().equals(f.contentHash()) && Objects.equals(r.summary().cancellationDate(), f.validTo())) {
+                counts.unchanged++;
+            } else {
+                changed.add(r);
+            }
+        }
+
+        // Datasets that are no longer in Niord, and that are still valid, are cancelled. Unless some messages could
+        // not be fetched, in which case we cannot tell whether they are missing from Niord or not
+        Instant now = Instant.now();
+        List<String> cancelled = new ArrayList<>();
+        if (!niordApi.isLastFetchComplete()) {
+            logger.warn("Not all messages could be fetched from Niord, skipping cancellation of missing datasets");
+            stored.clear();
+        }
+        for (S124DatasetFingerprint f : stored.values()) {
+            if (!niord.containsKey(f.mrn()) && (f.validTo() == null || f.validTo().isAfter(now))) {
+                cancelled.add(f.mrn());
+            }
+        }
+
+        TransactionTemplate tt = new TransactionTemplate(transactionManager);
+        for (int i = 0; i < changed.size(); i += batchSize) {
+            List<Result> batch = changed.subList(i, Math.min(i + batchSize, changed.size()));
+            try {
+                SyncCounts batchCounts = new SyncCounts();
+                tt.executeWithoutResult(status -> {
+                    for (Result r : batch) {
+                        batchCounts.add(upload(r));
+                    }
+                });
+                counts.add(batchCounts);
+            } catch (RuntimeException e) {
+                // Retry the datasets of the batch one at a time, so a single bad dataset does not fail the others
+                logger.warn("Failed to apply batch of {} datasets, retrying individually", batch.size(), e);
+                for (Result r : batch) {
+                    try {
+                        counts.add(tt.execute(status -> upload(r)));
+                    } catch (RuntimeException ex) {
+                        logger.error("Failed to upload dataset {}", r.summary().mrn(), ex);
+                        counts.failed++;
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < cancelled.size(); i += batchSize) {
+            List<String> batch = cancelled.subList(i, Math.min(i + batchSize, cancelled.size()));
+            try {
+                Integer c = tt.execute(status -> {
+                    int n = 0;
+                    for (String mrn : batch) {
+                        n += s124Service.cancel(mrn, now) ? 1 : 0;
+                    }
+                    return n;
+                });
+                counts.cancelled += c;
+            } catch (RuntimeException e) {
+                logger.error("Failed to cancel {} datasets", batch.size(), e);
+                counts.failed += batch.size();
+            }
+        }
+
+        SyncResult result = new SyncResult(counts.inserted, counts.updated, counts.cancelled, counts.unchanged, counts.failed,
+                (System.nanoTime() - start) / 1_000_000);
+        logger.info("Synchronized with Niord: {}", result);
+
+        Tags tags = BaleenMetrics.productTags(SECOM_DataProductType.S124, "1.0.0");
+        meterRegistry.timer("baleen.niord.sync", tags).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        meterRegistry.counter("baleen.niord.sync.datasets", tags.and("result", "inserted")).increment(result.inserted());
+        meterRegistry.counter("baleen.niord.sync.datasets", tags.and("result", "updated")).increment(result.updated());
+        meterRegistry.counter("baleen.niord.sync.datasets", tags.and("result", "cancelled")).increment(result.cancelled());
+        meterRegistry.counter("baleen.niord.sync.datasets", tags.and("result", "unchanged")).increment(result.unchanged());
+        meterRegistry.counter("baleen.niord.sync.datasets", tags.and("result", "failed")).increment(result.failed());
+        return result;
+    }
+
+    private UploadOutcome upload(Result r) {
+        try {
+            return s124Service.upload(r.xml(), r.summary(), r.contentHash());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not upload dataset " + r.summary().mrn(), e);
+        }
+    }
+
+    /**
+     * The result of synchronizing with Niord.
+     *
+     * @param inserted
+     *            the number of new datasets
+     * @param updated
+     *            the number of changed datasets
+     * @param cancelled
+     *            the number of datasets cancelled because they are no longer in Niord
+     * @param unchanged
+     *            the number of datasets that were already up to date
+     * @param failed
+     *            the number of datasets that could not be synchronized
+     * @param durationMillis
+     *            the time the synchronization took
+     */
+    public record SyncResult(int inserted, int updated, int cancelled, int unchanged, int failed, long durationMillis) {}
+
+    /** Mutable counters used while synchronizing. */
+    private static final class SyncCounts {
+        int inserted, updated, cancelled, unchanged, failed;
+
+        void add(UploadOutcome outcome) {
+            switch (outcome) {
+            case INSERTED -> inserted++;
+            case UPDATED -> updated++;
+            case UNCHANGED -> unchanged++;
+            }
+        }
+
+        void add(SyncCounts other) {
+            inserted += other.inserted;
+            updated += other.updated;
+            cancelled += other.cancelled;
+            unchanged += other.unchanged;
+            failed += other.failed;
+        }
+    }
+}
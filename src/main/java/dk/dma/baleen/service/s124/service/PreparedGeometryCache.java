@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * A small LRU cache of prepared query geometries.
+ * <p>
+ * Clients tend to query the same areas over and over again, such as the geometry of a UN/LOCODE or a fixed area of
+ * interest. Preparing a geometry builds indexes over its segments, which is only worth it if the prepared geometry is
+ * tested against many geometries, or reused across queries. Geometries are matched by exact equality.
+ */
+final class PreparedGeometryCache {
+
+    private final Map<Geometry, PreparedGeometry> cache;
+
+    PreparedGeometryCache(int maxSize) {
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Geometry, PreparedGeometry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns a prepared version of the specified geometry.
+     *
+     * @param geometry
+     *            the geometry to prepare, must not be modified afterwards
+     * @return the prepared geometry
+     */
+    PreparedGeometry prepare(Geometry geometry) {
+        synchronized (cache) {
+            PreparedGeometry pg = cache.get(geometry);
+            if (pg != null) {
+                return pg;
+            }
+        }
+        // Prepare outside of the lock, preparing the same geometry twice is harmless
+        PreparedGeometry pg = PreparedGeometryFactory.prepare(geometry);
+        synchronized (cache) {
+            cache.put(geometry, pg);
+        }
+        return pg;
+    }
+}
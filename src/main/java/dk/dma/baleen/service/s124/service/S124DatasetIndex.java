@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.intervalrtree.SortedPackedIntervalRTree;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import dk.dma.baleen.service.CopyOnWriteIndex;
+import dk.dma.baleen.service.TransactionCallbacks;
+import dk.dma.baleen.service.s124.model.S124DatasetInstanceEntity;
+import dk.dma.baleen.service.s124.repository.S124DatasetIndexEntry;
+import dk.dma.baleen.service.s124.repository.S124DatasetInstanceRepository;
+
+/**
+ * An in-memory spatial and temporal index of all active (not expired) S-124 datasets.
+ * <p>
+ * The index is a {@link CopyOnWriteIndex}, so queries never block and always see a consistent view. The spatial
+ * ({@link STRtree}) and temporal ({@link SortedPackedIntervalRTree}) trees of a snapshot are built lazily by the first
+ * query, so a burst of updates only builds the trees once.
+ * <p>
+ * The index is rebuilt from the repository at startup, and updated by {@link S124Service} when datasets are uploaded
+ * or cancelled.
+ * <p>
+ * Queries only return active datasets, that is datasets without a valid-to time or with a valid-to time in the future.
+ * Datasets that have expired (or been cancelled, which sets the valid-to time) are never returned, no matter the
+ * requested period, and the database queries of the other {@link S124Service.QueryMode query modes} use the same rule.
+ * Datasets that expire while indexed are filtered out by queries right away, and evicted from the index periodically.
+ */
+@Service
+public class S124DatasetIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(S124DatasetIndex.class);
+
+    private static final Comparator<S124DatasetIndexEntry> BY_ID = Comparator.comparing(S124DatasetIndexEntry::id);
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    @Autowired
+    S124DatasetInstanceRepository repository;
+
+    /** The indexed datasets by uuid. */
+    private final CopyOnWriteIndex<UUID, S124DatasetIndexEntry, Trees> index = new CopyOnWriteIndex<>(Trees::build);
+
+    /** Rebuilds the index from all active datasets in the repository. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        long start = System.nanoTime();
+        Map<UUID, S124DatasetIndexEntry> entries = new HashMap<>();
+        for (S124DatasetIndexEntry e : repository.findActiveIndexEntries(Instant.now())) {
+            entries.put(e.uuid(), e);
+        }
+        index.replaceAll(entries);
+        logger.info("Indexed {} active S-124 datasets in {} ms", entries.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Returns the number of datasets in the index.
+     *
+     * @return the number of datasets in the index
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Adds or replaces the specified dataset once the current transaction commits. Or immediately if there is no
+     * transaction. Datasets that are no longer valid are removed from the index.
+     *
+     * @param entity
+     *            the dataset
+     */
+    public void updateAfterCommit(S124DatasetInstanceEntity entity) {
+        S124DatasetIndexEntry e = new S124DatasetIndexEntry(entity.getId(), entity.getUuid(), entity.getGeometry(), entity.getValidFrom(),
+                entity.getValidTo());
+        TransactionCallbacks.afterCommit(() -> update(e));
+    }
+
+    /**
+     * Adds or replaces the specified entry. Entries that are no longer valid are removed from the index.
+     *
+     * @param entry
+     *            the entry
+     */
+    public void update(S124DatasetIndexEntry entry) {
+        if (entry.isActiveAt(Instant.now())) {
+            index.put(entry.uuid(), entry);
+        } else {
+            index.remove(entry.uuid());
+        }
+    }
+
+    /**
+     * Removes the dataset with the specified uuid from the index.
+     *
+     * @param uuid
+     *            the uuid of the dataset
+     */
+    public void remove(UUID uuid) {
+        index.remove(uuid);
+    }
+
+    /** Removes all datasets from the index. */
+    public void clear() {
+        index.clear();
+    }
+
+    /** Removes datasets that have expired from the index. Queries already ignore them, this just frees the memory. */
+    @Scheduled(fixedDelayString = "${baleen.s124.index.evict-interval:PT5M}")
+    public void evictExpired() {
+        Instant now = Instant.now();
+        int evicted = index.removeIf(e -> !e.isActiveAt(now));
+        if (evicted > 0) {
+            logger.debug("Evicted {} expired S-124 datasets from the index", evicted);
+        }
+    }
+
+    /**
+     * Finds all active datasets intersecting the specified bounding box, that are valid in the specified period.
+     *
+     * @param bbox
+     *            the bounding box
+     * @param from
+     *            the start of the period, or null for no lower bound
+     * @param to
+     *            the end of the period, or null for no upper bound
+     * @return the matching datasets, ordered by id
+     */
+    public List<S124DatasetIndexEntry> query(Envelope bbox, @Nullable Instant from, @Nullable Instant to) {
+        return query(null, GEOMETRY_FACTORY.toGeometry(bbox), from, to);
+    }
+
+    /**
+     * Finds all active datasets matching the specified filters.
+     *
+     * @param uuid
+     *            the uuid of the dataset, or null for any dataset
+     * @param geometry
+     *            the area the dataset must intersect, or null for any area. Typically parsed from WKT or an UNLOCODE
+     * @param from
+     *            the start of the period the dataset must be valid in, or null for no lower bound
+     * @param to
+     *            the end of the period the dataset must be valid in, or null for no upper bound
+     * @return the matching datasets, ordered by id
+     */
+    public List<S124DatasetIndexEntry> query(@Nullable UUID uuid, @Nullable Geometry geometry, @Nullable Instant from, @Nullable Instant to) {
+        CopyOnWriteIndex.Snapshot<UUID, S124DatasetIndexEntry, Trees> s = index.snapshot();
+        Instant now = Instant.now();
+        List<S124DatasetIndexEntry> result = new ArrayList<>();
+        if (s.entries().isEmpty()) {
+            return result;
+        } else if (uuid != null) {
+            S124DatasetIndexEntry e = s.entries().get(uuid);
+            if (e != null && e.isActiveAt(now) && e.isValidIn(from, to) && (geometry == null || (e.geometry() != null && geometry.intersects(e.geometry())))) {
+                result.add(e);
+            }
+            return result;
+        }
+
+        if (geometry != null) {
+            PreparedGeometry pg = PreparedGeometryFactory.prepare(geometry);
+            s.trees().spatial.query(geometry.getEnvelopeInternal(), item -> {
+                S124DatasetIndexEntry e = (S124DatasetIndexEntry) item;
+                if (e.isActiveAt(now) && e.isValidIn(from, to) && pg.intersects(e.geometry())) {
+                    result.add(e);
+                }
+            });
+        } else if (from != null || to != null) {
+            s.trees().temporal.query(toDouble(from, -Double.MAX_VALUE), toDouble(to, Double.MAX_VALUE), item -> {
+                S124DatasetIndexEntry e = (S124DatasetIndexEntry) item;
+                // The tree works on approximated times, so test the exact times as well
+                if (e.isActiveAt(now) && e.isValidIn(from, to)) {
+                    result.add(e);
+                }
+            });
+        } else {
+            for (S124DatasetIndexEntry e : s.entries().values()) {
+                if (e.isActiveAt(now)) {
+                    result.add(e);
+                }
+            }
+        }
+        result.sort(BY_ID);
+        return result;
+    }
+
+    private static double toDouble(@Nullable Instant instant, double ifNull) {
+        return instant == null ? ifNull : instant.getEpochSecond();
+    }
+
+    /** The spatial and temporal trees of a snapshot. Both are only queried once they have been built. */
+    private record Trees(STRtree spatial, SortedPackedIntervalRTree temporal) {
+
+        static Trees build(Iterable<S124DatasetIndexEntry> entries) {
+            STRtree spatial = new STRtree();
+            SortedPackedIntervalRTree temporal = new SortedPackedIntervalRTree();
+            boolean empty = true;
+            for (S124DatasetIndexEntry e : entries) {
+                if (e.geometry() != null && !e.geometry().isEmpty()) {
+                    spatial.insert(e.geometry().getEnvelopeInternal(), e);
+                }
+                // Round outwards to whole seconds, so the tree never excludes a matching entry
+                double min = e.validFrom() == null ? -Double.MAX_VALUE : e.validFrom().getEpochSecond();
+                double max = e.validTo() == null ? Double.MAX_VALUE : e.validTo().getEpochSecond() + 1;
+                temporal.insert(min, max, e);
+                empty = false;
+            }
+            spatial.build();
+            if (!empty) {
+                // Build the tree up front, so concurrent queries never trigger the build
+                temporal.query(0, 0, item -> {});
+            }
+            return new Trees(spatial, temporal);
+        }
+    }
+}
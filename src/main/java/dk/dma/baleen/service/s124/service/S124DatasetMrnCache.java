@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import dk.dma.baleen.service.TransactionCallbacks;
+
+/**
+ * An LRU cache from the mrn of a dataset to its database id.
+ * <p>
+ * Used when resolving the references of uploaded datasets, so the referenced datasets can be linked without loading
+ * them. Cancellation bulletins in particular reference many warnings, usually recently uploaded ones. The mrn of a
+ * dataset never changes once stored, so entries only need to be removed when datasets are deleted.
+ */
+@Component
+public class S124DatasetMrnCache {
+
+    /** The maximum number of mrns cached. */
+    private static final int MAX_SIZE = 100_000;
+
+    private final Map<String, Long> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /** Removes all entries, must be called whenever datasets are deleted. */
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Returns the id of the dataset with the specified mrn.
+     *
+     * @param mrn
+     *            the mrn of the dataset
+     * @return the id of the dataset, or null if not cached
+     */
+    @Nullable
+    public synchronized Long get(String mrn) {
+        return cache.get(mrn);
+    }
+
+    /**
+     * Adds the id of a stored dataset.
+     *
+     * @param mrn
+     *            the mrn of the dataset
+     * @param id
+     *            the id of the dataset
+     */
+    public synchronized void put(String mrn, Long id) {
+        cache.put(mrn, id);
+    }
+
+    /**
+     * Adds the id of a dataset once the current transaction commits, ids of datasets that are rolled back are never
+     * cached.
+     *
+     * @param mrn
+     *            the mrn of the dataset
+     * @param id
+     *            the id of the dataset
+     */
+    public void putAfterCommit(String mrn, Long id) {
+        TransactionCallbacks.afterCommit(() -> put(mrn, id));
+    }
+}
@@ -15,40 +15,75 @@
  */
 package dk.dma.baleen.service.s124.service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
 
 import org.grad.secom.core.models.CapabilityObject;
 import org.grad.secom.core.models.ImplementedInterfaces;
 import org.grad.secom.core.models.enums.ContainerTypeEnum;
 import org.grad.secom.core.models.enums.SECOM_DataProductType;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import dk.baleen.s100.xmlbindings.s124.v1_0_0.utils.S124Utils;
-import dk.dma.niord.s100.xmlbindings.s124.v2_0_0.Dataset;
-import dk.dma.niord.s100.xmlbindings.s124.v2_0_0.MessageSeriesIdentifierType;
-import dk.dma.niord.s100.xmlbindings.s124.v2_0_0.NavwarnPreamble;
+import dk.dma.baleen.secom.service.SecomExchangeSetCache;
 import dk.dma.baleen.secom.serviceold.SecomSubscriberService;
 import dk.dma.baleen.secom.serviceold.TransmissibleDatasetGenerator;
 import dk.dma.baleen.secom.util.MRNToUUID;
+import dk.dma.baleen.service.ContentHash;
+import dk.dma.baleen.service.DatasetChangedEvent;
+import dk.dma.baleen.service.DatasetChangedEvent.Change;
+import dk.dma.baleen.service.DatasetPayloadCache;
+import dk.dma.baleen.service.IngestTrace;
+import dk.dma.baleen.service.IngestTrace.Stage;
+import dk.dma.baleen.service.IngestTracer;
+import dk.dma.baleen.service.TransactionCallbacks;
 import dk.dma.baleen.service.dto.DatasetUploadGmlDto;
-import dk.dma.baleen.service.s124.NiordApiCaller;
 import dk.dma.baleen.service.s124.S124SupportedVersions;
-import dk.dma.baleen.service.s124.NiordApiCaller.Result;
+import dk.dma.baleen.service.s124.model.S100GmlPayloadEntity;
 import dk.dma.baleen.service.s124.model.S124DatasetInstanceEntity;
+import dk.dma.baleen.service.s124.repository.S124DatasetGeometry;
+import dk.dma.baleen.service.s124.repository.S124DatasetIndexEntry;
 import dk.dma.baleen.service.s124.repository.S124DatasetInstanceRepository;
-import dk.dma.baleen.service.s124.util.S124DatasetReader;
+import dk.dma.baleen.service.s124.repository.S124DatasetMrnId;
+import dk.dma.baleen.service.s124.util.CoarseGeometry;
+import dk.dma.baleen.service.s124.util.S100GeometryConverter.Reduction;
+import dk.dma.baleen.service.s124.util.S124DatasetStaxReader;
+import dk.dma.baleen.service.s124.util.S124DatasetSummary;
 import dk.dma.baleen.service.spi.DataSet;
 import dk.dma.baleen.service.spi.S100DataProductService;
 import dk.dma.baleen.service.spi.S100DataProductType;
@@ -59,12 +94,54 @@ import dk.dma.baleen.service.spi.S100DataProductType;
 @Service
 public class S124Service extends S100DataProductService {
 
+    private static final Logger logger = LoggerFactory.getLogger(S124Service.class);
+
     @Autowired
     S124DatasetInstanceRepository repository;
 
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
     @Autowired
     SecomSubscriberService subscriberService;
 
+    /** Whether to fully unmarshal (and validate) datasets via JAXB on upload instead of streaming over them. */
+    @Value("${baleen.s124.ingest.validate:false}")
+    boolean validateOnIngest;
+
+    /** How the geometries of the parts of a dataset are combined on upload. */
+    @Value("${baleen.s124.ingest.geometry-reduction:UNION}")
+    Reduction geometryReduction;
+
+    @Autowired
+    S124DatasetIndex index;
+
+    @Autowired
+    DatasetPayloadCache payloadCache;
+
+    @Autowired
+    S124DatasetMrnCache mrnCache;
+
+    @Autowired
+    IngestTracer tracer;
+
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    SecomExchangeSetCache exchangeSetCache;
+
+    /** Whether to answer queries from the in-memory index or from the database. */
+    @Value("${baleen.s124.query-mode:INDEX}")
+    QueryMode queryMode;
+
+    /** The tolerance (in degrees) used when creating the coarse geometry of a dataset. */
+    @Value("${baleen.s124.coarse-geometry-tolerance:0.01}")
+    double coarseGeometryTolerance;
+
+    /** Prepared query geometries, used by {@link QueryMode#BBOX}. */
+    private final PreparedGeometryCache preparedGeometries = new PreparedGeometryCache(256);
+
     public S124Service() {
         super(S100DataProductType.S124);
     }
@@ -91,39 +168,109 @@ public class S124Service extends S100DataProductService {
         return List.copyOf(all);
     }
 
-    @Autowired
-    NiordApiCaller niordApi;
-
     /** {@inheritDoc} */
     @Override
-    public Page<? extends DataSet> findAll(@Nullable UUID uuid, Geometry geometry, LocalDateTime fromTime, LocalDateTime toTime, Pageable pageable) {
-//        return repository.findDatasets(uuid, geometry, fromTime, toTime, pageable);
-        return getStatic();
+    @Transactional(readOnly = true)
+    public Page<? extends DataSet> findAll(@Nullable UUID uuid, @Nullable Geometry geometry, @Nullable LocalDateTime fromTime,
+            @Nullable LocalDateTime toTime, Pageable pageable) {
+        // Datasets are stored in WGS84, geometries parsed from requests typically have no SRID
+        if (geometry != null && geometry.getSRID() != S124DatasetSummary.SRID) {
+            geometry = geometry.copy();
+            geometry.setSRID(S124DatasetSummary.SRID);
+        }
+        if (queryMode == QueryMode.INDEX) {
+            return findAllInIndex(uuid, geometry, fromTime, toTime, pageable);
+        } else if (queryMode == QueryMode.BBOX && geometry != null) {
+            return findAllInEnvelope(uuid, geometry, fromTime, toTime, pageable);
+        }
+        // Make sure pages are stable
+        if (pageable.isPaged() && pageable.getSort().isUnsorted()) {
+            pageable = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), Sort.by("id"));
+        }
+        return repository.findDatasets(uuid, geometry, fromTime, toTime, pageable);
     }
 
-    private Page<? extends DataSet> getStatic() {
-        List<DataSet> l = new ArrayList<>();
-        List<Result> fetchAll = niordApi.getIt();
-        for (Result result : fetchAll) {
-            l.add(new DataSet() {
+    /** Finds the matching datasets in the index, and only loads the datasets of the requested page from the database. */
+    private Page<? extends DataSet> findAllInIndex(@Nullable UUID uuid, @Nullable Geometry geometry, @Nullable LocalDateTime fromTime,
+            @Nullable LocalDateTime toTime, Pageable pageable) {
+        List<S124DatasetIndexEntry> matches = index.query(uuid, geometry, fromTime == null ? null : fromTime.toInstant(ZoneOffset.UTC),
+                toTime == null ? null : toTime.toInstant(ZoneOffset.UTC));
+        return loadPage(matches.stream().map(S124DatasetIndexEntry::id).toList(), pageable);
+    }
 
-                @Override
-                public UUID uuid() {
-                    return UUID.randomUUID();
-                }
+    /**
+     * Finds the matching datasets by first pruning on the envelope columns, then on the coarse geometries and finally
+     * testing the remaining geometries exactly. Needs no spatial support from the database.
+     */
+    private Page<? extends DataSet> findAllInEnvelope(@Nullable UUID uuid, Geometry geometry, @Nullable LocalDateTime fromTime,
+            @Nullable LocalDateTime toTime, Pageable pageable) {
+        Envelope e = geometry.getEnvelopeInternal();
+        List<S124DatasetGeometry> candidates = repository.findCoarseGeometriesInEnvelope(uuid, e.getMinX(), e.getMinY(), e.getMaxX(),
+                e.getMaxY(), fromTime == null ? null : fromTime.toInstant(ZoneOffset.UTC), toTime == null ? null : toTime.toInstant(ZoneOffset.UTC),
+                Instant.now());
+
+        PreparedGeometry pg = preparedGeometries.prepare(geometry);
+        List<Long> remaining = new ArrayList<>(candidates.size());
+        for (S124DatasetGeometry c : candidates) {
+            // The coarse geometry covers the geometry, datasets stored without one are always tested exactly
+            if (c.geometry() == null || pg.intersects(c.geometry())) {
+                remaining.add(c.id());
+            }
+        }
 
-                @Override
-                public byte[] toByteArray() {
-                    return result.xml().getBytes(StandardCharsets.UTF_8);
+        List<Long> matches = new ArrayList<>(remaining.size());
+        // Load the full geometries in chunks, to stay within the parameter limits of the database
+        for (int i = 0; i < remaining.size(); i += 1000) {
+            for (S124DatasetGeometry c : repository.findGeometries(remaining.subList(i, Math.min(i + 1000, remaining.size())))) {
+                if (c.geometry() != null && pg.intersects(c.geometry())) {
+                    matches.add(c.id());
                 }
-            });
+            }
         }
-        // Set Data (Xml document)
-        return new PageImpl<DataSet>(l);
+        matches.sort(null);
+        return loadPage(matches, pageable);
+    }
+
+    /** Loads the datasets of the requested page of the specified ids from the database. */
+    private Page<? extends DataSet> loadPage(List<Long> ids, Pageable pageable) {
+        List<Long> page = ids;
+        if (pageable.isPaged()) {
+            int from = (int) Math.min(pageable.getOffset(), ids.size());
+            page = ids.subList(from, Math.min(from + pageable.getPageSize(), ids.size()));
+        }
+        Map<Long, S124DatasetInstanceEntity> loaded = new HashMap<>();
+        for (S124DatasetInstanceEntity e : repository.findAllById(page)) {
+            loaded.put(e.getId(), e);
+        }
+        // Keep the order of the ids, datasets deleted in the meantime are skipped
+        List<S124DatasetInstanceEntity> content = new ArrayList<>(page.size());
+        for (Long id : page) {
+            S124DatasetInstanceEntity d = loaded.get(id);
+            if (d != null) {
+                content.add(d);
+            }
+        }
+        return new PageImpl<>(content, pageable, ids.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The payload of a dataset is loaded lazily, so it is looked up by the id of the dataset instead of through the
+     * detached entity. A dataset that has been deleted in the meantime has no content.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public byte[] loadContent(DataSet dataset) {
+        if (dataset instanceof S124DatasetInstanceEntity e && e.getId() != null) {
+            return repository.findPayload(e.getId()).map(S100GmlPayloadEntity::getGml).orElse(new byte[0]);
+        }
+        return dataset.toByteArray();
     }
 
     /** {@inheritDoc} */
     @Override
+    @Transactional(rollbackFor = Exception.class)
     public void upload(DatasetUploadGmlDto d) throws Exception {
 //        if (!d.dataProductVersion().equals(S124SupportedVersions.V1_0_0.productVersion())) {
 //            throw new IllegalArgumentException(
@@ -133,88 +280,330 @@ public class S124Service extends S100DataProductService {
         upload(gml);
     }
 
-    /** {@inheritDoc} */
+    /**
+     * Uploads the specified dataset. If a dataset with the same mrn already exists it is replaced.
+     *
+     * @param gml
+     *            the dataset
+     * @throws Exception
+     *             if the dataset could not be uploaded
+     */
+    @Transactional(rollbackFor = Exception.class)
     public void upload(String gml) throws Exception {
 //        if (!d.dataProductVersion().equals(S124SupportedVersions.V1_0_0.productVersion())) {
 //            throw new IllegalArgumentException(
 //                    "Version " + d.dataProductVersion() + " not support for upload, supported versions=" + S124SupportedVersions.V1_0_0.serviceVersion());
 //        }
 
-        Dataset dataset = S124Utils.unmarshallS124(gml);
+        IngestTrace trace = tracer.begin(SECOM_DataProductType.S124.name(), "1.0.0", null);
+        UploadOutcome outcome;
+        try {
+            // Extract what we need from the dataset, either by streaming over the XML or by a full validating unmarshal
+            long t = trace.start();
+            S124DatasetSummary summary = validateOnIngest ? S124DatasetSummary.of(S124Utils.unmarshallS124(gml)) : S124DatasetStaxReader.read(gml);
+            String contentHash = ContentHash.of(gml);
+            trace.stop(Stage.PARSE, t);
+
+            trace.name(summary.mrn());
+            trace.debug("Parsed dataset {} ({} characters, {} geometry parts, {} references)", summary.mrn(), gml.length(),
+                    summary.geometryParts().size(), summary.referenceMrns().size());
+            outcome = upload(gml, summary, contentHash, trace);
+        } catch (Exception e) {
+            trace.fail(e);
+            throw e;
+        }
+        trace.finish(outcome);
+    }
 
-        // Debug: Log the incoming XML to see the structure
-        System.out.println("DEBUG: Incoming XML (first 2000 chars):");
-        System.out.println(gml.length() > 2000 ? gml.substring(0, 2000) + "..." : gml);
-        
-        // TODO check for existing
+    /**
+     * Uploads an already parsed dataset. If a dataset with the same mrn already exists, it is updated unless it has the
+     * same content hash and validity.
+     *
+     * @param gml
+     *            the dataset
+     * @param summary
+     *            the summary of the dataset
+     * @param contentHash
+     *            the content hash of the dataset
+     * @return the outcome of the upload
+     * @throws Exception
+     *             if the dataset could not be uploaded
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public UploadOutcome upload(String gml, S124DatasetSummary summary, String contentHash) throws Exception {
+        IngestTrace trace = tracer.begin(SECOM_DataProductType.S124.name(), "1.0.0", summary.mrn());
+        UploadOutcome outcome;
+        try {
+            outcome = upload(gml, summary, contentHash, trace);
+        } catch (RuntimeException e) {
+            trace.fail(e);
+            throw e;
+        }
+        trace.finish(outcome);
+        return outcome;
+    }
+
+    private UploadOutcome upload(String gml, S124DatasetSummary summary, String contentHash, IngestTrace trace) {
+        String mrn = summary.mrn();
+        long t = trace.start();
+        Optional<S124DatasetInstanceEntity> existing = repository.findByMrn(mrn);
+        trace.stop(Stage.PERSIST, t);
+        if (isUnchanged(existing.orElse(null), summary, contentHash)) {
+            return UploadOutcome.UNCHANGED;
+        }
+
+        // Create new instance entity, or update the existing one
+        S124DatasetInstanceEntity entity = existing.orElseGet(S124DatasetInstanceEntity::new);
+        populate(entity, gml, summary, contentHash, trace);
+
+        t = trace.start();
+        Map<String, S124DatasetInstanceEntity> known = new HashMap<>();
+        known.put(mrn, entity);
+        resolveReferences(List.of(entity), List.of(summary), known);
+
+        // Save the entity
+        repository.save(entity);
+        linkPendingReferences(List.of(entity));
+        trace.stop(Stage.PERSIST, t);
+        afterSave(entity, gml, existing.isPresent() ? Change.UPDATED : Change.INSERTED, trace);
+        // Notify subscripers.
+
+        // Tror faktisk den skal vaere single threaded, og i samme transaction.
+
+        /// Dataset (As string?), Product Type
+        /// We probably have a special GML notification instead of a generic one
+        return existing.isPresent() ? UploadOutcome.UPDATED : UploadOutcome.INSERTED;
+    }
+
+    /**
+     * Uploads a batch of datasets in a single transaction.
+     * <p>
+     * The datasets are parsed in parallel before the transaction is started. Datasets that cannot be parsed are reported
+     * as failures and do not prevent the remaining datasets from being uploaded. References between datasets in the batch
+     * are resolved regardless of their order. If the batch contains multiple datasets with the same mrn, the last one
+     * wins. Each inserted or updated dataset is published to subscribers as a publication of its own.
+     *
+     * @param gmls
+     *            the datasets
+     * @return the result of the upload
+     */
+    public BulkUploadResult uploadAll(List<String> gmls) {
+        long start = System.nanoTime();
+        IngestTrace trace = tracer.begin(SECOM_DataProductType.S124.name(), "1.0.0", "bulk upload of " + gmls.size() + " datasets");
+
+        // Parse and hash the datasets in parallel, this is where most of the time is spent
+        long t = trace.start();
+        ParsedDataset[] parsed = new ParsedDataset[gmls.size()];
+        String[] errors = new String[gmls.size()];
+        IntStream.range(0, gmls.size()).parallel().forEach(i -> {
+            String gml = gmls.get(i);
+            try {
+                S124DatasetSummary summary = validateOnIngest ? S124DatasetSummary.of(S124Utils.unmarshallS124(gml)) : S124DatasetStaxReader.read(gml);
+                parsed[i] = new ParsedDataset(gml, summary, ContentHash.of(gml));
+            } catch (Exception e) {
+                errors[i] = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            }
+        });
+        trace.stop(Stage.PARSE, t);
+
+        List<BulkUploadFailure> failures = new ArrayList<>();
+        LinkedHashMap<String, ParsedDataset> byMrn = new LinkedHashMap<>();
+        for (int i = 0; i < parsed.length; i++) {
+            if (parsed[i] == null) {
+                failures.add(new BulkUploadFailure(i, errors[i]));
+            } else {
+                byMrn.put(parsed[i].summary().mrn(), parsed[i]);
+            }
+        }
+
+        int[] counts;
+        try {
+            counts = new TransactionTemplate(transactionManager).execute(status -> uploadAll(byMrn, trace));
+        } catch (RuntimeException e) {
+            trace.count(IngestTrace.FAILED, gmls.size());
+            trace.fail(e);
+            throw e;
+        }
+        trace.count(UploadOutcome.INSERTED.name(), counts[0]);
+        trace.count(UploadOutcome.UPDATED.name(), counts[1]);
+        trace.count(UploadOutcome.UNCHANGED.name(), counts[2]);
+        trace.count(IngestTrace.FAILED, failures.size());
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("Bulk uploaded {} datasets in {} ms, inserted = {}, updated = {}, unchanged = {}, failed = {}", gmls.size(), durationMillis,
+                counts[0], counts[1], counts[2], failures.size());
+        BulkUploadResult result = new BulkUploadResult(counts[0], counts[1], counts[2], List.copyOf(failures), durationMillis);
+        trace.finish(result);
+        return result;
+    }
+
+    /** Stores the parsed datasets (keyed by mrn) in the current transaction, returns the number inserted, updated and unchanged. */
+    private int[] uploadAll(Map<String, ParsedDataset> datasets, IngestTrace trace) {
+        // Load every dataset in the batch that is already stored with a single query
+        long t = trace.start();
+        Map<String, S124DatasetInstanceEntity> known = new HashMap<>();
+        for (S124DatasetInstanceEntity e : repository.findAllByMrnIn(datasets.keySet())) {
+            known.put(e.getMrn(), e);
+        }
+        trace.stop(Stage.PERSIST, t);
+
+        int[] counts = new int[3];
+        List<S124DatasetInstanceEntity> changed = new ArrayList<>();
+        List<S124DatasetSummary> changedSummaries = new ArrayList<>();
+        List<String> changedGmls = new ArrayList<>();
+        List<Change> changes = new ArrayList<>();
+        for (ParsedDataset p : datasets.values()) {
+            S124DatasetInstanceEntity existing = known.get(p.summary().mrn());
+            if (isUnchanged(existing, p.summary(), p.contentHash())) {
+                counts[2]++;
+                continue;
+            }
+            counts[existing == null ? 0 : 1]++;
+            changes.add(existing == null ? Change.INSERTED : Change.UPDATED);
+            S124DatasetInstanceEntity entity = existing == null ? new S124DatasetInstanceEntity() : existing;
+            populate(entity, p.gml(), p.summary(), p.contentHash(), trace);
+            known.put(entity.getMrn(), entity);
+            changed.add(entity);
+            changedSummaries.add(p.summary());
+            changedGmls.add(p.gml());
+        }
+
+        // References are resolved once every dataset in the batch has an entity, so references within the batch work
+        // regardless of the order of the datasets
+        t = trace.start();
+        resolveReferences(changed, changedSummaries, known);
+
+        repository.saveAll(changed);
+        linkPendingReferences(changed);
+        trace.stop(Stage.PERSIST, t);
+        for (int i = 0; i < changed.size(); i++) {
+            afterSave(changed.get(i), changedGmls.get(i), changes.get(i), trace);
+        }
+        return counts;
+    }
+
+    /**
+     * Sets the references of the specified datasets.
+     * <p>
+     * References are first resolved against the specified known datasets (typically the datasets being uploaded), then
+     * against the mrn cache, and finally the remaining are looked up with a single query. References to datasets that
+     * have not been uploaded yet are recorded as pending, and linked by {@link #linkPendingReferences(List)} once the
+     * referenced dataset is uploaded.
+     *
+     * @param entities
+     *            the datasets to set the references of
+     * @param summaries
+     *            the summaries of the datasets, in the same order
+     * @param known
+     *            datasets by mrn that references can be resolved against, referenced datasets are added to it
+     */
+    private void resolveReferences(List<S124DatasetInstanceEntity> entities, List<S124DatasetSummary> summaries,
+            Map<String, S124DatasetInstanceEntity> known) {
+        Set<String> missing = new HashSet<>();
+        for (S124DatasetSummary summary : summaries) {
+            for (String mrnRef : summary.referenceMrns()) {
+                if (!known.containsKey(mrnRef)) {
+                    Long id = mrnCache.get(mrnRef);
+                    if (id == null) {
+                        missing.add(mrnRef);
+                    } else {
+                        known.put(mrnRef, repository.getReferenceById(id));
+                    }
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (S124DatasetMrnId m : repository.findIdsByMrnIn(missing)) {
+                known.put(m.mrn(), repository.getReferenceById(m.id()));
+                mrnCache.put(m.mrn(), m.id());
+            }
+        }
+
+        for (int i = 0; i < entities.size(); i++) {
+            S124DatasetInstanceEntity entity = entities.get(i);
+            entity.getReferences().clear();
+            entity.getPendingReferences().clear();
+            for (String mrnRef : summaries.get(i).referenceMrns()) {
+                S124DatasetInstanceEntity ref = known.get(mrnRef);
+                if (ref == null) {
+                    entity.getPendingReferences().add(mrnRef);
+                } else {
+                    entity.addReference(ref);
+                }
+            }
+        }
+    }
+
+    /** Links the stored datasets that are waiting for one of the specified (just saved) datasets. */
+    private void linkPendingReferences(List<S124DatasetInstanceEntity> saved) {
+        Map<String, S124DatasetInstanceEntity> byMrn = new HashMap<>();
+        for (S124DatasetInstanceEntity e : saved) {
+            byMrn.put(e.getMrn(), e);
+        }
+        for (S124DatasetInstanceEntity waiting : repository.findAllWithPendingReferencesTo(byMrn.keySet())) {
+            for (Iterator<String> it = waiting.getPendingReferences().iterator(); it.hasNext();) {
+                S124DatasetInstanceEntity ref = byMrn.get(it.next());
+                if (ref != null) {
+                    waiting.addReference(ref);
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /** Returns whether the specified existing dataset (if any) already has the same content and validity. */
+    private static boolean isUnchanged(@Nullable S124DatasetInstanceEntity existing, S124DatasetSummary summary, String contentHash) {
+        return existing != null && existing.hasGml() && contentHash.equals(existing.getContentHash())
+                && Objects.equals(summary.cancellationDate(), existing.getValidTo());
+    }
 
-        // TODO we should have some kind of
-        // Create new instance entity
-        S124DatasetInstanceEntity entity = new S124DatasetInstanceEntity();
+    /** Sets everything but the references of the specified entity from the dataset. */
+    private void populate(S124DatasetInstanceEntity entity, String gml, S124DatasetSummary summary, String contentHash, IngestTrace trace) {
+        String mrn = summary.mrn();
 
         // Set basic properties
         //entity.setDataProductVersion(d.dataProductVersion());
         entity.setDataProductVersion("1.0.0");
 
         // Convert geometries.
-        Geometry geometry = S124DatasetReader.calculateGeometry(dataset);
+        long t = trace.start();
+        Geometry geometry = summary.calculateGeometry(geometryReduction);
         entity.setGeometry(geometry);
+        entity.setCoarseGeometry(CoarseGeometry.covering(geometry, coarseGeometryTolerance));
+        trace.stop(Stage.GEOMETRY, t);
 
         // Store the original XML
         entity.setGml(gml);
+        entity.setContentHash(contentHash);
 
-        // Set validity
-        NavwarnPreamble preamble = S124DatasetReader.findPreamble(dataset);
-        
-        // Debug: Log preamble details
-        System.out.println("DEBUG: Preamble found: " + preamble);
-        if (preamble != null && preamble.getMessageSeriesIdentifier() != null) {
-            MessageSeriesIdentifierType identifier = preamble.getMessageSeriesIdentifier();
-            System.out.println("DEBUG: MessageSeriesIdentifier details:");
-            System.out.println("  - Agency: " + identifier.getAgencyResponsibleForProduction());
-            System.out.println("  - Country: " + identifier.getCountryName());
-            System.out.println("  - WarningNumber: " + identifier.getWarningNumber());
-            System.out.println("  - Year: " + identifier.getYear());
-            System.out.println("  - WarningIdentifier: '" + identifier.getWarningIdentifier() + "'");
-            System.out.println("  - NameOfSeries: " + identifier.getNameOfSeries());
-        }
-
-        String mrn = S124DatasetReader.toMRN(preamble.getMessageSeriesIdentifier());
         entity.setMrn(mrn);
         
         // Generate UUID from MRN instead of dataset ID to ensure uniqueness
-        System.out.println("DEBUG: Dataset ID: " + dataset.getId());
-        System.out.println("DEBUG: Using MRN for UUID: " + mrn);
         UUID uuid = MRNToUUID.createUUIDFromMRN(mrn);
         entity.setUuid(uuid);
+        trace.debug("Dataset {} (dataset id {}) stored with uuid {}", mrn, summary.datasetId(), uuid);
 
-        OffsetDateTime pd = preamble.getPublicationTime();
-        if (pd != null) {
-            entity.setValidFrom(pd.toInstant());
-        }
-
-        OffsetDateTime cd = preamble.getCancellationDate();
-        if (cd != null) {
-            entity.setValidTo(cd.toInstant());
-        }
-        // entity.setMrn(...); // Set Maritime Resource Name if available
-
-        for (MessageSeriesIdentifierType m : S124DatasetReader.findAllReferences(dataset)) {
-            String mrnRef = S124DatasetReader.toMRN(m);
-
-            // Add reference to existing dataset if we know it.
-            Optional<S124DatasetInstanceEntity> ref = repository.findByMrn(mrnRef);
-            ref.ifPresent(entity::addReference);
-        }
+        // Set validity
+        entity.setValidFrom(summary.publicationTime());
+        entity.setValidTo(summary.cancellationDate());
+    }
 
-        // Save the entity
-        repository.save(entity);
+    /** Updates the index and caches once the current transaction commits, and publishes the saved dataset to subscribers. */
+    private void afterSave(S124DatasetInstanceEntity entity, String gml, Change change, IngestTrace trace) {
+        index.updateAfterCommit(entity);
+        mrnCache.putAfterCommit(entity.getMrn(), entity.getId());
+        invalidateCachesAfterCommit(entity.getUuid());
+        eventPublisher.publishEvent(new DatasetChangedEvent(S100DataProductType.S124, entity.getUuid(), entity.getMrn(), change, Instant.now()));
 
-        subscriberService.publish(SECOM_DataProductType.S124, "1.0.0", uuid, geometry, new TransmissibleDatasetGenerator() {
+        long t = trace.start();
+        subscriberService.publish(SECOM_DataProductType.S124, "1.0.0", entity.getUuid(), entity.getGeometry(), new TransmissibleDatasetGenerator() {
 
             @Override
             protected byte[] createExchangeSet() {
-                throw new UnsupportedOperationException();
+                try {
+                    return exchangeSetCache.get("S-124", "1.0.0", List.of(entity), ds -> getDataset(), Deflater.DEFAULT_COMPRESSION, Long.MAX_VALUE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
             }
 
             @Override
@@ -222,14 +611,102 @@ public class S124Service extends S100DataProductService {
                 return gml.getBytes(StandardCharsets.UTF_8);
             }
         });
-        // Notify subscripers.
+        trace.stop(Stage.PUBLISH, t);
+    }
 
-        // Tror faktisk den skal vaere single threaded, og i samme transaction.
+    /**
+     * Cancels the dataset with the specified mrn by ending its validity. Datasets that are already no longer valid at
+     * the specified time are left untouched.
+     *
+     * @param mrn
+     *            the mrn of the dataset to cancel
+     * @param cancelledAt
+     *            the time the dataset was cancelled
+     * @return whether or not the dataset was cancelled
+     */
+    @Transactional
+    public boolean cancel(String mrn, Instant cancelledAt) {
+        Optional<S124DatasetInstanceEntity> existing = repository.findByMrn(mrn);
+        if (existing.isEmpty()) {
+            return false;
+        }
+        S124DatasetInstanceEntity entity = existing.get();
+        if (entity.getValidTo() != null && !entity.getValidTo().isAfter(cancelledAt)) {
+            return false;
+        }
+        entity.setValidTo(cancelledAt);
+        repository.save(entity);
+        index.updateAfterCommit(entity);
+        invalidateCachesAfterCommit(entity.getUuid());
+        eventPublisher.publishEvent(new DatasetChangedEvent(S100DataProductType.S124, entity.getUuid(), mrn, Change.CANCELLED, Instant.now()));
+        return true;
+    }
 
-        /// Dataset (As string?), Product Type
-        /// We probably have a special GML notification instead of a generic one
+    /** Removes a changed dataset from the payload and exchange set caches once the current transaction commits. */
+    private void invalidateCachesAfterCommit(UUID uuid) {
+        TransactionCallbacks.afterCommit(() -> {
+            payloadCache.invalidate(uuid);
+            exchangeSetCache.invalidate(uuid);
+        });
     }
 
+    /** Where queries for datasets are answered. All modes only return active datasets, see {@link S124DatasetIndex}. */
+    public enum QueryMode {
+
+        /** Queries are answered by the in-memory {@link S124DatasetIndex}, only the matching datasets are loaded. */
+        INDEX,
+
+        /** Queries are answered by the database. */
+        DATABASE,
+
+        /**
+         * Queries are pruned on the stored envelopes and coarse geometries, and the remaining geometries tested in memory.
+         * Does not require spatial support from the database.
+         */
+        BBOX;
+    }
+
+    /** A dataset that has been parsed as part of a bulk upload. */
+    private record ParsedDataset(String gml, S124DatasetSummary summary, String contentHash) {}
+
+    /**
+     * The result of a bulk upload.
+     *
+     * @param inserted
+     *            the number of new datasets stored
+     * @param updated
+     *            the number of existing datasets updated
+     * @param unchanged
+     *            the number of datasets that were already stored
+     * @param failures
+     *            the datasets that could not be parsed
+     * @param durationMillis
+     *            the time the upload took in milliseconds
+     */
+    public record BulkUploadResult(int inserted, int updated, int unchanged, List<BulkUploadFailure> failures, long durationMillis) {}
+
+    /**
+     * A dataset in a bulk upload that could not be uploaded.
+     *
+     * @param index
+     *            the index of the dataset in the upload
+     * @param message
+     *            why the dataset could not be uploaded
+     */
+    public record BulkUploadFailure(int index, String message) {}
+
+    /** The outcome of uploading a dataset. */
+    public enum UploadOutcome {
+
+        /** A new dataset was stored. */
+        INSERTED,
+
+        /** An existing dataset with the same mrn was updated. */
+        UPDATED,
+
+        /** An identical dataset was already stored. */
+        UNCHANGED;
+    }
 
 //    /**
 //     * @param doc
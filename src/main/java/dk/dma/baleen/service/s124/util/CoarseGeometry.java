@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124.util;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.operation.buffer.BufferOp;
+import org.locationtech.jts.operation.buffer.BufferParameters;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+
+/**
+ * Creates coarse geometries that cover a geometry with far fewer vertices.
+ * <p>
+ * The geometry is simplified with the tolerance and the result buffered by the tolerance. Every point of the original
+ * geometry is within the tolerance of the simplified geometry, so the buffer covers the original geometry. The buffer
+ * uses 2 segments per quadrant, its distance is increased so the chords of its arcs lie outside the exact buffer. A
+ * query geometry that does not intersect the coarse geometry therefore cannot intersect the original geometry either.
+ */
+public final class CoarseGeometry {
+
+    /** The number of segments used to approximate a quarter circle in the buffer. */
+    private static final int QUADRANT_SEGMENTS = 2;
+
+    /** Factor applied to the buffer distance so that the approximated arcs lie outside the exact buffer. */
+    private static final double CHORD_FACTOR = 1 / Math.cos(Math.PI / (4 * QUADRANT_SEGMENTS));
+
+    private CoarseGeometry() {}
+
+    /**
+     * Returns a coarse geometry covering the specified geometry. If simplifying does not reduce the number of vertices
+     * the geometry itself is returned.
+     *
+     * @param geometry
+     *            the geometry to cover
+     * @param tolerance
+     *            the simplification tolerance, in the units of the geometry
+     * @return a coarse geometry covering the geometry, or null if the geometry is null or empty
+     */
+    public static Geometry covering(Geometry geometry, double tolerance) {
+        if (geometry == null || geometry.isEmpty()) {
+            return null;
+        }
+        Geometry simplified = TopologyPreservingSimplifier.simplify(geometry, tolerance);
+        if (simplified.isEmpty()) {
+            return geometry;
+        }
+        BufferParameters parameters = new BufferParameters(QUADRANT_SEGMENTS);
+        Geometry coarse = BufferOp.bufferOp(simplified, tolerance * CHORD_FACTOR, parameters);
+        if (coarse.getNumPoints() >= geometry.getNumPoints()) {
+            return geometry;
+        }
+        coarse.setSRID(geometry.getSRID());
+        return coarse;
+    }
+}
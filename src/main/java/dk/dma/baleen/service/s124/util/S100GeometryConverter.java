@@ -28,19 +28,20 @@ import dk.dma.niord.s100.xmlbindings.s100.gml.profiles._5_0.ObjectFactory;
 import dk.dma.niord.s100.xmlbindings.s100.gml.profiles._5_0.impl.*;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
 
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFilter;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryCollection;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Lineal;
 import org.locationtech.jts.geom.Polygonal;
-import org.locationtech.jts.geom.PrecisionModel;
 import org.locationtech.jts.geom.Puntal;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.locationtech.jts.operation.union.CascadedPolygonUnion;
+import org.locationtech.jts.operation.union.UnaryUnionOp;
 
 import jakarta.xml.bind.JAXBElement;
 
@@ -74,23 +75,36 @@ public final class S100GeometryConverter {
      * @return the respective geometry
      */
     public static Geometry convertToGeometry(List<S100SpatialAttributeType> list) {
-        return convertToGeometry(list, new GeometryFactory(new PrecisionModel(), 4326));
+        return convertToGeometry(list, S124DatasetSummary.GEOMETRY_FACTORY);
     }
 
     public static Geometry convertToGeometry(List<S100SpatialAttributeType> list, GeometryFactory geometryFactory) {
+        return convertToGeometry(list, geometryFactory, Reduction.UNION);
+    }
+
+    /**
+     * Translates the generic point/curve/surface property of the list of feature type into a JTS geometry.
+     *
+     * @param list
+     *            a list of S-100 point/curve/surface properties
+     * @param geometryFactory
+     *            the geometry factory to use
+     * @param reduction
+     *            how the individual points, curves and surfaces are combined
+     * @return the respective geometry
+     */
+    public static Geometry convertToGeometry(List<S100SpatialAttributeType> list, GeometryFactory geometryFactory, Reduction reduction) {
 
         // Handle empty list case
         if (list == null || list.isEmpty()) {
             return geometryFactory.createEmpty(-1);
         }
 
-        // Result collection to store processed geometries
-        List<Geometry> resultGeometries = new ArrayList<>();
+        // The points, line strings and polygons of all the attributes
+        List<Geometry> components = new ArrayList<>();
 
         // Process each spatial attribute
         for (S100SpatialAttributeType attribute : list) {
-            Geometry geometry = null;
-
             if (attribute instanceof PointProperty pointProperty) {
                 // Handle Point Property
                 PointType point = pointProperty.getPoint();
@@ -100,13 +114,11 @@ public final class S100GeometryConverter {
                     if (values != null && values.length >= 2) {
                         // JTS uses (lon,lat), GML uses (lat,lon)
                         Coordinate coord = new Coordinate(values[1], values[0]);
-                        geometry = geometryFactory.createPoint(coord);
+                        components.add(geometryFactory.createPoint(coord));
                     }
                 }
             } else if (attribute instanceof CurveProperty curveProperty) {
                 // Handle Curve Property
-                List<Geometry> curveGeometries = new ArrayList<>();
-
                 CurveType curve = curveProperty.getCurve();
                 if (curve != null && curve.getSegments() != null) {
                     Segments segments = curve.getSegments();
@@ -117,24 +129,18 @@ public final class S100GeometryConverter {
                         if (value instanceof LineStringSegmentType lineString) {
                             PosList posList = lineString.getPosList();
                             if (posList != null) {
-                                Coordinate[] coords = gmlPosListToCoordinates(posList);
-                                if (coords.length == 1) {
-                                    curveGeometries.add(geometryFactory.createPoint(coords[0]));
+                                CoordinateSequence coords = gmlPosListToCoordinates(posList);
+                                if (coords.size() == 1) {
+                                    components.add(geometryFactory.createPoint(coords));
                                 } else {
-                                    curveGeometries.add(geometryFactory.createLineString(coords));
+                                    components.add(geometryFactory.createLineString(coords));
                                 }
                             }
                         }
                     }
                 }
-
-                if (!curveGeometries.isEmpty()) {
-                    geometry = geometryFactory.createGeometryCollection(curveGeometries.toArray(new Geometry[0]));
-                }
             } else if (attribute instanceof SurfaceProperty surfaceProperty) {
                 // Handle Surface Property
-                List<Geometry> surfaceGeometries = new ArrayList<>();
-
                 SurfaceType surface = surfaceProperty.getSurface();
                 if (surface != null && surface.getPatches() != null) {
                     Patches patches = surface.getPatches();
@@ -150,11 +156,11 @@ public final class S100GeometryConverter {
                                 if (ringValue instanceof LinearRingType linearRing) {
                                     PosList posList = linearRing.getPosList();
                                     if (posList != null) {
-                                        Coordinate[] coords = gmlPosListToCoordinates(posList);
-                                        if (coords.length == 1) {
-                                            surfaceGeometries.add(geometryFactory.createPoint(coords[0]));
+                                        CoordinateSequence coords = gmlPosListToCoordinates(posList);
+                                        if (coords.size() == 1) {
+                                            components.add(geometryFactory.createPoint(coords));
                                         } else {
-                                            surfaceGeometries.add(geometryFactory.createPolygon(coords));
+                                            components.add(geometryFactory.createPolygon(coords));
                                         }
                                     }
                                 }
@@ -162,47 +168,140 @@ public final class S100GeometryConverter {
                         }
                     }
                 }
-
-                if (!surfaceGeometries.isEmpty()) {
-                    geometry = geometryFactory.createGeometryCollection(surfaceGeometries.toArray(new Geometry[0]));
-                }
             }
+        }
 
-            if (geometry != null) {
-                resultGeometries.add(geometry);
-            }
+        return reduce(components, geometryFactory, reduction);
+    }
+
+    /**
+     * Combines a list of already converted geometries into a single geometry by unioning them.
+     *
+     * @param geometries
+     *            the geometries to combine
+     * @param geometryFactory
+     *            the geometry factory used to create an empty geometry if the list is empty
+     * @return the combined geometry
+     * @see #reduce(List, GeometryFactory, Reduction)
+     */
+    public static Geometry union(List<Geometry> geometries, GeometryFactory geometryFactory) {
+        return reduce(geometries, geometryFactory, Reduction.UNION);
+    }
+
+    /**
+     * Combines a list of already converted geometries into a single geometry.
+     * <p>
+     * Geometry collections in the list are flattened first. If only a single point, line string or polygon remains it is
+     * returned as is. Otherwise, for {@link Reduction#UNION}, the components are unioned per dimension, polygons via
+     * {@link CascadedPolygonUnion}, and the results of the different dimensions combined via {@link UnaryUnionOp}. This is
+     * topologically equivalent to unioning the geometries one by one, but does not grow a result geometry that must be
+     * overlaid again for every additional part.
+     *
+     * @param geometries
+     *            the geometries to combine
+     * @param geometryFactory
+     *            the geometry factory used to create the result
+     * @param reduction
+     *            how the geometries are combined
+     * @return the combined geometry
+     */
+    public static Geometry reduce(List<Geometry> geometries, GeometryFactory geometryFactory, Reduction reduction) {
+        List<Geometry> points = new ArrayList<>();
+        List<Geometry> lines = new ArrayList<>();
+        List<Geometry> polygons = new ArrayList<>();
+        for (Geometry g : geometries) {
+            flatten(g, points, lines, polygons);
+        }
+
+        int count = points.size() + lines.size() + polygons.size();
+        if (count == 0) {
+            return geometryFactory.createEmpty(-1);
+        } else if (count == 1) {
+            return !polygons.isEmpty() ? polygons.get(0) : !lines.isEmpty() ? lines.get(0) : points.get(0);
+        }
+
+        if (reduction == Reduction.COLLECTION) {
+            List<Geometry> all = new ArrayList<>(count);
+            all.addAll(polygons);
+            all.addAll(lines);
+            all.addAll(points);
+            // Creates a multi geometry if all components have the same type, otherwise a geometry collection
+            return geometryFactory.buildGeometry(all);
+        }
+
+        List<Geometry> unioned = new ArrayList<>(3);
+        if (!polygons.isEmpty()) {
+            unioned.add(polygons.size() == 1 ? polygons.get(0) : CascadedPolygonUnion.union(polygons));
         }
+        if (!lines.isEmpty()) {
+            unioned.add(UnaryUnionOp.union(lines, geometryFactory));
+        }
+        if (!points.isEmpty()) {
+            unioned.add(UnaryUnionOp.union(points, geometryFactory));
+        }
+        // Only combine across dimensions if needed, this removes points and lines covered by polygons
+        return unioned.size() == 1 ? unioned.get(0) : UnaryUnionOp.union(unioned, geometryFactory);
+    }
 
-        // Combine all geometries using union
-        Geometry result = geometryFactory.createEmpty(-1);
-        for (Geometry geom : resultGeometries) {
-            if (result.isEmpty()) {
-                result = geom;
-            } else {
-                result = result.union(geom);
+    /** Adds the non-empty points, line strings and polygons of the specified geometry to the respective list. */
+    private static void flatten(Geometry geometry, List<Geometry> points, List<Geometry> lines, List<Geometry> polygons) {
+        if (geometry instanceof GeometryCollection) {
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                flatten(geometry.getGeometryN(i), points, lines, polygons);
+            }
+        } else if (!geometry.isEmpty()) {
+            switch (geometry.getDimension()) {
+            case 0 -> points.add(geometry);
+            case 1 -> lines.add(geometry);
+            default -> polygons.add(geometry);
             }
         }
+    }
 
-        return result;
+    /** How the individual geometries of a dataset are combined into a single geometry. */
+    public enum Reduction {
+
+        /** The geometries are unioned, merging overlapping polygons and removing parts covered by other geometries. */
+        UNION,
+
+        /**
+         * The geometries are just collected into a multi geometry or geometry collection. This is cheap but may contain
+         * overlapping components, which spatial predicates such as intersects handle fine.
+         */
+        COLLECTION;
     }
 
     /**
-     * A simple utility function that receives JTS geometry coordinates and constructs a position list object.
+     * A simple utility function that receives a JTS geometry and returns the values of a position list for its coordinates.
      *
-     * @param coordinates
-     *            the provided coordinates
-     * @return the respective position list
+     * @param geometry
+     *            the provided geometry
+     * @return the respective position list values
      */
-    private static PosList coordinatesToGmlPosList(Coordinate[] coordinates) {
-        // Translate the coordinates to a simple list of doubles (Y, X)
+    private static Double[] geometryToGmlPosValues(Geometry geometry) {
+        // Translate the coordinates to a simple array of doubles (Y, X)
         // JTS uses (lon,lat), GML uses (lat,lon)
-        List<Double> coords = Optional.ofNullable(coordinates).map(Arrays::asList).orElse(Collections.emptyList()).stream()
-                .map(c -> Arrays.asList(c.getY(), c.getX())).flatMap(List::stream).toList();
+        Double[] values = new Double[geometry.getNumPoints() * 2];
+        geometry.apply(new CoordinateSequenceFilter() {
+            int count;
+
+            @Override
+            public void filter(CoordinateSequence seq, int i) {
+                values[count++] = seq.getY(i);
+                values[count++] = seq.getX(i);
+            }
 
-        // Then create the list and return
-        PosList posList = new PosListImpl();
-        posList.setValue(coords.toArray(Double[]::new));
-        return posList;
+            @Override
+            public boolean isDone() {
+                return false;
+            }
+
+            @Override
+            public boolean isGeometryChanged() {
+                return false;
+            }
+        });
+        return values;
     }
 
     /**
@@ -273,18 +372,22 @@ public final class S100GeometryConverter {
     }
 
     /**
-     * A simple utility function that splits the position list values by two and generates JTS geometry coordinates by them.
+     * A simple utility function that splits the position list values by two and generates a packed JTS coordinate sequence
+     * from them.
      *
      * @param posList
      *            the provided position list
      * @return the respective coordinates
      */
-    private static Coordinate[] gmlPosListToCoordinates(PosList posList) {
-        final List<Coordinate> result = new ArrayList<>();
-        for (int i = 0; i < posList.getValue().length; i = i + 2) {
-            result.add(new Coordinate(posList.getValue()[i + 1], posList.getValue()[i]));
+    private static CoordinateSequence gmlPosListToCoordinates(PosList posList) {
+        Double[] values = posList.getValue();
+        double[] packed = new double[values.length & ~1];
+        // JTS uses (lon,lat), GML uses (lat,lon)
+        for (int i = 0; i < packed.length; i += 2) {
+            packed[i] = values[i + 1];
+            packed[i + 1] = values[i];
         }
-        return result.toArray(new Coordinate[] {});
+        return new PackedCoordinateSequence.Double(packed, 2, 0);
     }
 
     /**
@@ -362,7 +465,7 @@ public final class S100GeometryConverter {
             PointProperty pointProperty = initPointProperty();
 
             // And append the point
-            pointProperty.getPoint().setPos(generatePointPropertyPosition(coordinatesToGmlPosList(geometry.getCoordinates()).getValue()));
+            pointProperty.getPoint().setPos(generatePointPropertyPosition(geometryToGmlPosValues(geometry)));
             s100SpatialAttributeTypes.add(pointProperty);
         } else if (geometry instanceof Lineal) {
             // Initialise the curve property if not already initialised
@@ -370,7 +473,7 @@ public final class S100GeometryConverter {
 
             // And append the line string
             curveProperty.getCurve().getSegments().getAbstractCurveSegments().add(
-                    opengisGMLFactory.createLineStringSegment(generateCurvePropertySegment(coordinatesToGmlPosList(geometry.getCoordinates()).getValue())));
+                    opengisGMLFactory.createLineStringSegment(generateCurvePropertySegment(geometryToGmlPosValues(geometry))));
             s100SpatialAttributeTypes.add(curveProperty);
         } else if (geometry instanceof Polygonal) {
             // Initialise the curve property if not already initialised
@@ -378,7 +481,7 @@ public final class S100GeometryConverter {
 
             // And append the surface patch
             surfaceProperty.getSurface().getPatches().getAbstractSurfacePatches()
-                    .add(opengisGMLFactory.createPolygonPatch(generateSurfacePropertyPatch(coordinatesToGmlPosList(geometry.getCoordinates()).getValue())));
+                    .add(opengisGMLFactory.createPolygonPatch(generateSurfacePropertyPatch(geometryToGmlPosValues(geometry))));
             s100SpatialAttributeTypes.add(surfaceProperty);
         } else if (geometry instanceof GeometryCollection && geometry.getNumGeometries() > 0) {
             for (int i = 0; i < geometry.getNumGeometries(); i++) {
@@ -15,10 +15,15 @@
  */
 package dk.dma.baleen.service.s124.util;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
 
 import org.locationtech.jts.geom.Geometry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import dk.dma.niord.s100.xmlbindings.s100.gml.base._5_0.S100SpatialAttributeType;
 import dk.dma.niord.s100.xmlbindings.s100.gml.profiles._5_0.AbstractGMLType;
@@ -34,67 +39,127 @@ import dk.dma.niord.s100.xmlbindings.s124.v2_0_0.References;
  */
 public class S124DatasetReader {
 
+    private static final Logger logger = LoggerFactory.getLogger(S124DatasetReader.class);
+
     public static String toMRN(MessageSeriesIdentifierType identifier) {
-        // Add detailed logging for debugging
-        System.out.println("DEBUG: toMRN called with identifier: " + identifier);
-        System.out.println("DEBUG: identifier.getWarningIdentifier(): " + identifier.getWarningIdentifier());
-        System.out.println("DEBUG: warningIdentifier is null: " + (identifier.getWarningIdentifier() == null));
-        if (identifier.getWarningIdentifier() != null) {
-            System.out.println("DEBUG: warningIdentifier length: " + identifier.getWarningIdentifier().length());
-            System.out.println("DEBUG: warningIdentifier after trim: '" + identifier.getWarningIdentifier().trim() + "'");
-            System.out.println("DEBUG: warningIdentifier is empty after trim: " + identifier.getWarningIdentifier().trim().isEmpty());
-        }
-        
         // First check if warningIdentifier is available and use it directly
         if (identifier.getWarningIdentifier() != null && !identifier.getWarningIdentifier().trim().isEmpty()) {
-            String warningIdentifier = identifier.getWarningIdentifier().trim();
-            System.out.println("DEBUG: Using warningIdentifier as MRN: " + warningIdentifier);
-            return warningIdentifier;
+            return identifier.getWarningIdentifier().trim();
         }
-        
+
         // Fallback to constructing MRN from other fields
-        System.out.println("DEBUG: warningIdentifier not available, constructing MRN from other fields");
+        String warningTypeCode = null;
+        String warningTypeValue = null;
+        if (identifier.getWarningType() != null) {
+            warningTypeCode = Objects.toString(identifier.getWarningType().getCode(), null);
+            warningTypeValue = Objects.toString(identifier.getWarningType().getValue(), null);
+        }
+
+        String result = toMRN(null, identifier.getAgencyResponsibleForProduction(), identifier.getCountryName(), String.valueOf(identifier.getYear()),
+                String.valueOf(identifier.getWarningNumber()), warningTypeCode, warningTypeValue);
+        if (logger.isTraceEnabled()) {
+            logger.trace("No warning identifier, created MRN {} from agency = {}, country = {}, year = {}, number = {}, type = {}", result,
+                    identifier.getAgencyResponsibleForProduction(), identifier.getCountryName(), identifier.getYear(), identifier.getWarningNumber(),
+                    identifier.getWarningType());
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates an MRN from the raw fields of a message series identifier. This is used both when reading an unmarshalled
+     * dataset and when streaming over the XML of a dataset.
+     * <p>
+     * The fields are normalised, so the MRN does not depend on how the dataset was read. All fields are trimmed, numbers
+     * are written without leading zeros, and the value of the warning type is written in lower case with each run of
+     * other characters than letters and digits replaced by a dash. As the value is the label of an enumeration, this makes
+     * the name of an unmarshalled constant ({@code COASTAL_NAVIGATIONAL_WARNING}) and the text of the element
+     * ({@code Coastal Navigational Warning}) map to the same MRN.
+     *
+     * @param warningIdentifier
+     *            the warning identifier, used as is if present
+     * @param agency
+     *            the agency responsible for production
+     * @param country
+     *            the country name
+     * @param year
+     *            the year of the warning
+     * @param warningNumber
+     *            the number of the warning
+     * @param warningTypeCode
+     *            the code of the warning type
+     * @param warningTypeValue
+     *            the value of the warning type, only used if no code is present
+     * @return the mrn
+     */
+    public static String toMRN(String warningIdentifier, String agency, String country, String year, String warningNumber, String warningTypeCode,
+            String warningTypeValue) {
+        // First check if warningIdentifier is available and use it directly
+        if (warningIdentifier != null && !warningIdentifier.trim().isEmpty()) {
+            return warningIdentifier.trim();
+        }
+
+        agency = trimToNull(agency);
+        country = trimToNull(country);
+        warningTypeCode = trimToNull(warningTypeCode);
+        warningTypeValue = label(warningTypeValue);
+
         StringBuilder b = new StringBuilder();
         b.append("urn:mrn:dk:baleen:s-124");
-        
-        // Log what we're getting
-        System.out.println("DEBUG: Creating MRN from identifier: " + identifier);
-        if (identifier != null) {
-            System.out.println("  Agency: " + identifier.getAgencyResponsibleForProduction());
-            System.out.println("  Country: " + identifier.getCountryName());
-            System.out.println("  WarningNumber: " + identifier.getWarningNumber());
-            System.out.println("  Year: " + identifier.getYear());
-            System.out.println("  WarningType: " + identifier.getWarningType());
-        }
-        
+
         // Add agency
-        if (identifier.getAgencyResponsibleForProduction() != null && !identifier.getAgencyResponsibleForProduction().isEmpty()) {
-            b.append(":").append(identifier.getAgencyResponsibleForProduction().toLowerCase());
+        if (agency != null && !agency.isEmpty()) {
+            b.append(":").append(agency.toLowerCase());
         }
-        
+
         // Add country
-        if (identifier.getCountryName() != null && !identifier.getCountryName().isEmpty()) {
-            b.append(":").append(identifier.getCountryName().toLowerCase());
+        if (country != null && !country.isEmpty()) {
+            b.append(":").append(country.toLowerCase());
         }
-        
+
         // Add year and warning number
-        b.append(":").append(identifier.getYear());
-        b.append(":").append(identifier.getWarningNumber());
-        
-        // Add warning type if present
-        if (identifier.getWarningType() != null) {
-            // Use the code if available, otherwise use the value
-            if (identifier.getWarningType().getCode() != null) {
-                b.append(":").append(identifier.getWarningType().getCode());
-            } else if (identifier.getWarningType().getValue() != null) {
-                b.append(":").append(identifier.getWarningType().getValue());
-            }
+        b.append(":").append(number(year));
+        b.append(":").append(number(warningNumber));
+
+        // Add warning type if present, use the code if available, otherwise use the value
+        if (warningTypeCode != null) {
+            b.append(":").append(warningTypeCode);
+        } else if (warningTypeValue != null) {
+            b.append(":").append(warningTypeValue);
         }
+        return b.toString();
+    }
 
-        String result = b.toString();
-        System.out.println("  Generated MRN: " + result);
-        
-        return result;
+    /** Returns the label in lower case with each run of other characters than letters and digits replaced by a dash. */
+    private static String label(String label) {
+        String s = trimToNull(label);
+        if (s == null) {
+            return null;
+        }
+        s = s.toLowerCase(Locale.ROOT).replaceAll("[^\\p{L}\\p{N}]+", "-");
+        s = s.replaceAll("^-|-$", "");
+        return s.isEmpty() ? null : s;
+    }
+
+    /** Returns the number without leading zeros, or the trimmed text if it is not a number. */
+    private static String number(String number) {
+        String s = trimToNull(number);
+        if (s == null) {
+            return String.valueOf(number);
+        }
+        try {
+            return new BigInteger(s).toString();
+        } catch (NumberFormatException e) {
+            return s;
+        }
+    }
+
+    private static String trimToNull(String s) {
+        if (s == null) {
+            return null;
+        }
+        String t = s.trim();
+        return t.isEmpty() ? null : t;
     }
 
     private static <T extends AbstractGMLType> List<T> findAll(Class<T> gmlType, Dataset ds) {
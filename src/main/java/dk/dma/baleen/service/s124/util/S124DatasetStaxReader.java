@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124.util;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+
+/**
+ * Extracts the information needed for ingesting an S-124 dataset in a single streaming pass over the XML.
+ * <p>
+ * Unlike {@link dk.baleen.s100.xmlbindings.s124.v1_0_0.utils.S124Utils#unmarshallS124(String)} this does not build the
+ * full JAXB tree of the dataset. Only the preamble, the references and the geometries of parts and affected areas are
+ * looked at. Everything else is skipped. Elements are matched on their local name only, so the reader does not depend on
+ * the namespace prefixes used by the producer.
+ * <p>
+ * The geometries produced are identical to those of {@link S124DatasetReader#calculateGeometry(dk.dma.niord.s100.xmlbindings.s124.v2_0_0.Dataset)}.
+ */
+public final class S124DatasetStaxReader {
+
+    /** The factory used to create readers, thread-safe once configured. */
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    /** Formats we accept for publication time and cancellation date. */
+    private static final List<DateTimeFormatter> TIME_FORMATTERS = List.of(DateTimeFormatter.ISO_DATE_TIME, DateTimeFormatter.ISO_DATE,
+            DateTimeFormatter.ofPattern("uuuuMMdd['T'HHmmss[XXX]]"));
+
+    private S124DatasetStaxReader() {}
+
+    /**
+     * Reads the specified dataset.
+     *
+     * @param gml
+     *            the dataset
+     * @return a summary of the dataset
+     * @throws IllegalArgumentException
+     *             if the dataset could not be parsed or did not contain exactly one preamble
+     */
+    public static S124DatasetSummary read(String gml) {
+        return read(new StringReader(gml));
+    }
+
+    /**
+     * Reads the specified dataset.
+     *
+     * @param gml
+     *            the dataset
+     * @return a summary of the dataset
+     * @throws IllegalArgumentException
+     *             if the dataset could not be parsed or did not contain exactly one preamble
+     */
+    public static S124DatasetSummary read(InputStream gml) {
+        try {
+            return read(XML_INPUT_FACTORY.createXMLStreamReader(gml));
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Could not parse dataset: " + e.getMessage(), e);
+        }
+    }
+
+    private static S124DatasetSummary read(Reader gml) {
+        try {
+            return read(XML_INPUT_FACTORY.createXMLStreamReader(gml));
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Could not parse dataset: " + e.getMessage(), e);
+        }
+    }
+
+    private static S124DatasetSummary read(XMLStreamReader r) throws XMLStreamException {
+        try {
+            return new Parser(r).parse();
+        } finally {
+            r.close();
+        }
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory f = XMLInputFactory.newInstance();
+        f.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        f.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        f.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return f;
+    }
+
+    /**
+     * Parses a space separated list of numbers.
+     *
+     * @param text
+     *            the text to parse
+     * @return the parsed numbers
+     */
+    static double[] parseDoubles(String text) {
+        double[] result = new double[16];
+        int count = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (start < i) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = Double.parseDouble(text.substring(start, i));
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Parses a GML position list directly into a packed coordinate sequence. The values are split by two and swapped, as
+     * JTS uses (lon,lat) and GML uses (lat,lon). A trailing unpaired value is ignored.
+     */
+    static CoordinateSequence parsePosList(String text) {
+        double[] values = parseDoubles(text);
+        int length = values.length & ~1;
+        for (int i = 0; i < length; i += 2) {
+            double lat = values[i];
+            values[i] = values[i + 1];
+            values[i + 1] = lat;
+        }
+        return new PackedCoordinateSequence.Double(length == values.length ? values : Arrays.copyOf(values, length), 2, 0);
+    }
+
+    /**
+     * Parses the specified time. Accepts both the extended and basic ISO 8601 formats. Times without an offset are assumed
+     * to be in UTC.
+     */
+    static Instant parseTime(String text) {
+        String s = text.trim();
+        if (s.isEmpty()) {
+            return null;
+        }
+        for (DateTimeFormatter f : TIME_FORMATTERS) {
+            try {
+                TemporalAccessor t = f.parseBest(s, OffsetDateTime::from, LocalDateTime::from, LocalDate::from);
+                if (t instanceof OffsetDateTime odt) {
+                    return odt.toInstant();
+                } else if (t instanceof LocalDateTime ldt) {
+                    return ldt.toInstant(ZoneOffset.UTC);
+                } else {
+                    return ((LocalDate) t).atStartOfDay().toInstant(ZoneOffset.UTC);
+                }
+            } catch (DateTimeParseException ignore) {}
+        }
+        throw new IllegalArgumentException("Could not parse time '" + s + "'");
+    }
+
+    /** The kind of feature we are currently inside. */
+    private enum Feature {
+        NONE, PREAMBLE, REFERENCES, GEOMETRY
+    }
+
+    /** The kind of spatial property we are currently inside. */
+    private enum Property {
+        NONE, POINT, CURVE, SURFACE
+    }
+
+    /** The state of a single parse. */
+    private static final class Parser {
+
+        private final XMLStreamReader r;
+
+        private final GeometryFactory gf = S124DatasetSummary.GEOMETRY_FACTORY;
+
+        private String datasetId;
+
+        private Feature feature = Feature.NONE;
+
+        private int preambleCount;
+
+        private String mrn;
+
+        private Instant publicationTime;
+
+        private Instant cancellationDate;
+
+        private final List<String> references = new ArrayList<>();
+
+        private final List<Geometry> geometries = new ArrayList<>();
+
+        private Property property = Property.NONE;
+
+        private boolean inExterior;
+
+        /** The message series identifier we are currently reading, or null. */
+        private String[] identifier;
+
+        Parser(XMLStreamReader r) {
+            this.r = r;
+        }
+
+        S124DatasetSummary parse() throws XMLStreamException {
+            while (r.hasNext()) {
+                int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    startElement(r.getLocalName());
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    endElement(r.getLocalName());
+                }
+            }
+            if (preambleCount != 1) {
+                throw new IllegalArgumentException("Expected exactly 1 Preamble, but found " + preambleCount);
+            }
+            if (mrn == null) {
+                throw new IllegalArgumentException("Preamble did not contain a message series identifier");
+            }
+            return new S124DatasetSummary(datasetId, mrn, publicationTime, cancellationDate, references, geometries);
+        }
+
+        private void startElement(String name) throws XMLStreamException {
+            switch (feature) {
+            case NONE -> {
+                if (name.equals("Dataset")) {
+                    datasetId = attribute("id");
+                } else if (name.equalsIgnoreCase("NAVWARNPreamble")) {
+                    feature = Feature.PREAMBLE;
+                    preambleCount++;
+                } else if (name.equals("References")) {
+                    feature = Feature.REFERENCES;
+                } else if (name.equalsIgnoreCase("NAVWARNPart") || name.equalsIgnoreCase("NAVWARNAreaAffected")) {
+                    feature = Feature.GEOMETRY;
+                }
+            }
+            case PREAMBLE, REFERENCES -> {
+                if (name.equals("messageSeriesIdentifier")) {
+                    identifier = new String[7];
+                } else if (identifier != null) {
+                    readIdentifierField(name);
+                } else if (feature == Feature.PREAMBLE && name.equals("publicationTime")) {
+                    publicationTime = parseTime(r.getElementText());
+                } else if (feature == Feature.PREAMBLE && name.equals("cancellationDate")) {
+                    cancellationDate = parseTime(r.getElementText());
+                }
+            }
+            case GEOMETRY -> startGeometryElement(name);
+            }
+        }
+
+        private void readIdentifierField(String name) throws XMLStreamException {
+            switch (name) {
+            case "warningIdentifier" -> identifier[0] = r.getElementText();
+            case "agencyResponsibleForProduction" -> identifier[1] = r.getElementText();
+            case "countryName" -> identifier[2] = r.getElementText();
+            case "year" -> identifier[3] = r.getElementText().trim();
+            case "warningNumber" -> identifier[4] = r.getElementText().trim();
+            case "warningType" -> {
+                identifier[5] = attribute("code");
+                identifier[6] = r.getElementText();
+            }
+            default -> {}
+            }
+        }
+
+        private void startGeometryElement(String name) throws XMLStreamException {
+            switch (property) {
+            case NONE -> {
+                if (name.equals("pointProperty")) {
+                    property = Property.POINT;
+                } else if (name.equals("curveProperty")) {
+                    property = Property.CURVE;
+                } else if (name.equals("surfaceProperty")) {
+                    property = Property.SURFACE;
+                }
+            }
+            case POINT -> {
+                if (name.equals("pos")) {
+                    double[] values = parseDoubles(r.getElementText());
+                    if (values.length >= 2) {
+                        // JTS uses (lon,lat), GML uses (lat,lon)
+                        geometries.add(gf.createPoint(new Coordinate(values[1], values[0])));
+                    }
+                }
+            }
+            case CURVE -> {
+                if (name.equals("posList")) {
+                    CoordinateSequence coords = parsePosList(r.getElementText());
+                    geometries.add(coords.size() == 1 ? gf.createPoint(coords) : gf.createLineString(coords));
+                }
+            }
+            case SURFACE -> {
+                if (name.equals("exterior")) {
+                    inExterior = true;
+                } else if (inExterior && name.equals("posList")) {
+                    CoordinateSequence coords = parsePosList(r.getElementText());
+                    geometries.add(coords.size() == 1 ? gf.createPoint(coords) : gf.createPolygon(coords));
+                }
+            }
+            }
+        }
+
+        private void endElement(String name) {
+            if (identifier != null && name.equals("messageSeriesIdentifier")) {
+                String m = S124DatasetReader.toMRN(identifier[0], identifier[1], identifier[2], identifier[3], identifier[4], identifier[5], identifier[6]);
+                if (feature == Feature.PREAMBLE) {
+                    mrn = m;
+                } else {
+                    references.add(m);
+                }
+                identifier = null;
+            } else if (name.equals("exterior")) {
+                inExterior = false;
+            } else if (property != Property.NONE && (name.equals("pointProperty") || name.equals("curveProperty") || name.equals("surfaceProperty"))) {
+                property = Property.NONE;
+            } else if (name.equalsIgnoreCase("NAVWARNPreamble") || name.equals("References") || name.equalsIgnoreCase("NAVWARNPart")
+                    || name.equalsIgnoreCase("NAVWARNAreaAffected")) {
+                feature = Feature.NONE;
+            }
+        }
+
+        private String attribute(String localName) {
+            for (int i = 0; i < r.getAttributeCount(); i++) {
+                if (r.getAttributeLocalName(i).equals(localName)) {
+                    return r.getAttributeValue(i);
+                }
+            }
+            return null;
+        }
+    }
+}
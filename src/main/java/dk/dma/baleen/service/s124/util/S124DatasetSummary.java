@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124.util;
+
+import static java.util.Objects.requireNonNull;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.springframework.lang.Nullable;
+
+import dk.dma.baleen.service.s124.util.S100GeometryConverter.Reduction;
+import dk.dma.niord.s100.xmlbindings.s124.v2_0_0.Dataset;
+import dk.dma.niord.s100.xmlbindings.s124.v2_0_0.MessageSeriesIdentifierType;
+import dk.dma.niord.s100.xmlbindings.s124.v2_0_0.NavwarnPreamble;
+
+/**
+ * The information Baleen needs from an S-124 dataset when ingesting it.
+ * <p>
+ * Instances are normally created by {@link S124DatasetStaxReader} in a single pass over the XML. But can also be created
+ * from a fully unmarshalled dataset via {@link #of(Dataset)}.
+ *
+ * @param datasetId
+ *            the gml id of the dataset, may be null
+ * @param mrn
+ *            the MRN of the warning
+ * @param publicationTime
+ *            the publication time from the preamble, may be null
+ * @param cancellationDate
+ *            the cancellation date from the preamble, may be null
+ * @param referenceMrns
+ *            the MRNs of all warnings referenced by the dataset
+ * @param geometryParts
+ *            the geometries of all parts and affected areas, not yet combined
+ */
+public record S124DatasetSummary(@Nullable String datasetId, String mrn, @Nullable Instant publicationTime, @Nullable Instant cancellationDate,
+        List<String> referenceMrns, List<Geometry> geometryParts) {
+
+    /** The spatial reference system (WGS84) of dataset geometries. */
+    public static final int SRID = 4326;
+
+    /** The geometry factory used for combining geometry parts. */
+    static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory(new PrecisionModel(), SRID);
+
+    public S124DatasetSummary {
+        requireNonNull(mrn, "mrn is null");
+        referenceMrns = List.copyOf(referenceMrns);
+        geometryParts = List.copyOf(geometryParts);
+    }
+
+    /** {@return the combined geometry of all parts of the dataset} */
+    public Geometry calculateGeometry() {
+        return calculateGeometry(Reduction.UNION);
+    }
+
+    /**
+     * Combines the geometries of all parts of the dataset.
+     *
+     * @param reduction
+     *            how the geometries are combined
+     * @return the combined geometry
+     */
+    public Geometry calculateGeometry(Reduction reduction) {
+        return S100GeometryConverter.reduce(geometryParts, GEOMETRY_FACTORY, reduction);
+    }
+
+    /**
+     * Creates a summary from an unmarshalled dataset.
+     *
+     * @param dataset
+     *            the dataset to create a summary from
+     * @return the summary
+     */
+    public static S124DatasetSummary of(Dataset dataset) {
+        NavwarnPreamble preamble = S124DatasetReader.findPreamble(dataset);
+        String mrn = S124DatasetReader.toMRN(preamble.getMessageSeriesIdentifier());
+
+        List<String> references = new ArrayList<>();
+        for (MessageSeriesIdentifierType m : S124DatasetReader.findAllReferences(dataset)) {
+            references.add(S124DatasetReader.toMRN(m));
+        }
+
+        OffsetDateTime pd = preamble.getPublicationTime();
+        OffsetDateTime cd = preamble.getCancellationDate();
+        Geometry geometry = S124DatasetReader.calculateGeometry(dataset);
+        return new S124DatasetSummary(dataset.getId(), mrn, pd == null ? null : pd.toInstant(), cd == null ? null : cd.toInstant(), references,
+                geometry.isEmpty() ? List.of() : List.of(geometry));
+    }
+}
@@ -24,8 +24,27 @@ public interface DataSet {
 
     UUID uuid();
 
+    /**
+     * Returns a hash of the content of this dataset, used for caching the content.
+     *
+     * @return a hash of the content, or null if not known
+     */
+    default String contentHash() {
+        return null;
+    }
+
     /** {@return the content of this dataset as a byte array} */
     byte[] toByteArray();
+
+    /**
+     * Returns the size of the content of this dataset in bytes. Implementations should override this if the size is known
+     * without materializing the content.
+     *
+     * @return the size of the content in bytes
+     */
+    default int size() {
+        return toByteArray().length;
+    }
 }
 
 // Security
@@ -18,7 +18,7 @@ package dk.dma.baleen.service.spi;
 /**
  * An exception that is thrown when trying to upload a dataset, and a gap was detected in the order.
  */
-// What about missing references???
+// Missing references are not an error, S-124 datasets record them as pending and link them once the referenced dataset is uploaded
 public class DatasetMissingReferenceException extends RuntimeException {
 
     private static final long serialVersionUID = 1L;
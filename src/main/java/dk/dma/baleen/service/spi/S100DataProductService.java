@@ -45,5 +45,17 @@ public abstract class S100DataProductService {
         throw new UnsupportedOperationException("Not supported");
     }
 
+    /**
+     * Loads the content of a dataset returned by {@link #findAll}. The datasets are detached once {@code findAll} returns,
+     * so data products that load the content lazily must override this to load it in a transaction of their own.
+     *
+     * @param dataset
+     *            the dataset
+     * @return the content of the dataset
+     */
+    public byte[] loadContent(DataSet dataset) {
+        return dataset.toByteArray();
+    }
+
     public abstract void upload(DatasetUploadGmlDto d) throws Exception;
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/** Tests {@link NiordApiCaller2} against a stub Niord server. */
+public class NiordApiCaller2Test {
+
+    private static final String MESSAGES = """
+            [{"id":"1","shortId":"NW-001-25","mainType":"NW"},
+             {"id":"2","shortId":"NW-002-25","mainType":"NW"},
+             {"id":"3","shortId":"NM-003-25","mainType":"NM"}]""";
+
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer server;
+
+    private NiordApiCaller2 caller;
+
+    /** The dataset served for message 2, which does not support conditional requests. */
+    private volatile String message2 = dataset("urn:mrn:test:s124:nw-002-25", "2025-01-01T00:00:00Z");
+
+    private final AtomicInteger message1Downloads = new AtomicInteger();
+
+    private final AtomicInteger message1NotModified = new AtomicInteger();
+
+    private final AtomicInteger message2Downloads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/rest/public/v1/messages", e -> respond(e, 200, MESSAGES));
+        server.createContext("/rest/S-124/messages/1", e -> {
+            if (ETAG.equals(e.getRequestHeaders().getFirst("If-None-Match"))) {
+                message1NotModified.incrementAndGet();
+                e.sendResponseHeaders(304, -1);
+                e.close();
+            } else {
+                message1Downloads.incrementAndGet();
+                e.getResponseHeaders().set("ETag", ETAG);
+                respond(e, 200, dataset("urn:mrn:test:s124:nw-001-25", "2025-01-01T00:00:00Z"));
+            }
+        });
+        server.createContext("/rest/S-124/messages/2", e -> {
+            message2Downloads.incrementAndGet();
+            respond(e, 200, message2);
+        });
+        server.start();
+        caller = new NiordApiCaller2("http://localhost:" + server.getAddress().getPort(), 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void fetchesOnlyNavigationalWarnings() throws Exception {
+        List<NiordApiCaller2.Result> result = caller.fetchAll();
+        assertEquals(2, result.size());
+        assertEquals("urn:mrn:test:s124:nw-001-25", result.get(0).summary().mrn());
+        assertEquals("urn:mrn:test:s124:nw-002-25", result.get(1).summary().mrn());
+        assertTrue(caller.isLastFetchComplete());
+    }
+
+    @Test
+    void reusesMessageNotModified() throws Exception {
+        NiordApiCaller2.Result first = caller.fetchAll().get(0);
+        NiordApiCaller2.Result second = caller.fetchAll().get(0);
+
+        assertEquals(1, message1Downloads.get());
+        assertEquals(1, message1NotModified.get());
+        assertSame(first, second);
+    }
+
+    @Test
+    void skipsParsingWhenContentHashIsUnchanged() throws Exception {
+        NiordApiCaller2.Result first = caller.fetchAll().get(1);
+        NiordApiCaller2.Result second = caller.fetchAll().get(1);
+
+        // Downloaded twice, as the server does not support conditional requests, but only parsed once
+        assertEquals(2, message2Downloads.get());
+        assertSame(first, second);
+
+        message2 = dataset("urn:mrn:test:s124:nw-002-25", "2025-02-01T00:00:00Z");
+        NiordApiCaller2.Result third = caller.fetchAll().get(1);
+        assertNotSame(first, third);
+        assertNotEquals(first.contentHash(), third.contentHash());
+    }
+
+    @Test
+    void rejectsInvalidConcurrency() {
+        assertThrows(IllegalArgumentException.class, () -> new NiordApiCaller2("http://localhost", 0));
+    }
+
+    private static void respond(HttpExchange e, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        e.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = e.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    /** Creates a minimal S-124 dataset with a single preamble. */
+    private static String dataset(String mrn, String publicationTime) {
+        return """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <S124:Dataset xmlns:S124="http://www.iho.int/S124/1.0" xmlns:gml="http://www.opengis.net/gml/3.2" gml:id="DS">
+                  <S124:members>
+                    <S124:NAVWARNPreamble gml:id="P">
+                      <S124:messageSeriesIdentifier>
+                        <S124:warningIdentifier>%s</S124:warningIdentifier>
+                      </S124:messageSeriesIdentifier>
+                      <S124:publicationTime>%s</S124:publicationTime>
+                    </S124:NAVWARNPreamble>
+                  </S124:members>
+                </S124:Dataset>
+                """.formatted(mrn, publicationTime);
+    }
+}
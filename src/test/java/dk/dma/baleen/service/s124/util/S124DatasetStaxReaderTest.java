@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2008 Kasper Nielsen.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.dma.baleen.service.s124.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import dk.baleen.s100.xmlbindings.s124.v1_0_0.utils.S124Utils;
+
+/**
+ * Tests that {@link S124DatasetStaxReader} reads the same summary as the full JAXB unmarshal it replaces, as the MRN
+ * determines the uuid of a dataset and how it is deduplicated and referenced.
+ */
+public class S124DatasetStaxReaderTest {
+
+    private static final String WARNING_IDENTIFIER = "<ns4:warningIdentifier>urn:mrn:iho:nw:dk:nw-004-25</ns4:warningIdentifier>";
+
+    @Test
+    void withWarningIdentifier() throws Exception {
+        String gml = dataset();
+        assertSameSummary(gml);
+        assertEquals("urn:mrn:iho:nw:dk:nw-004-25", S124DatasetStaxReader.read(gml).mrn());
+    }
+
+    @Test
+    void withoutWarningIdentifier() throws Exception {
+        String gml = dataset().replace(WARNING_IDENTIFIER, "");
+        assertSameSummary(gml);
+        assertEquals("urn:mrn:dk:baleen:s-124:danish maritime authorities:dk:2025:4:2", S124DatasetStaxReader.read(gml).mrn());
+    }
+
+    @Test
+    void withoutWarningIdentifierUntrimmed() throws Exception {
+        String gml = dataset().replace(WARNING_IDENTIFIER, "")
+                .replace(">Danish Maritime Authorities<", ">\n    Danish Maritime Authorities  <")
+                .replace("<ns4:warningNumber>4<", "<ns4:warningNumber> 4 <")
+                .replace("<ns4:year>2025<", "<ns4:year>\n2025\n<");
+        assertSameSummary(gml);
+        assertEquals("urn:mrn:dk:baleen:s-124:danish maritime authorities:dk:2025:4:2", S124DatasetStaxReader.read(gml).mrn());
+    }
+
+    @Test
+    void withoutWarningTypeCode() throws Exception {
+        String gml = dataset().replace(WARNING_IDENTIFIER, "").replace("<ns4:warningType code=\"2\">", "<ns4:warningType>");
+        assertSameSummary(gml);
+        assertEquals("urn:mrn:dk:baleen:s-124:danish maritime authorities:dk:2025:4:coastal-navigational-warning",
+                S124DatasetStaxReader.read(gml).mrn());
+    }
+
+    private static void assertSameSummary(String gml) throws Exception {
+        S124DatasetSummary expected = S124DatasetSummary.of(S124Utils.unmarshallS124(gml));
+        S124DatasetSummary actual = S124DatasetStaxReader.read(gml);
+
+        assertEquals(expected.datasetId(), actual.datasetId());
+        assertEquals(expected.mrn(), actual.mrn());
+        assertEquals(expected.referenceMrns(), actual.referenceMrns());
+        assertEquals(expected.publicationTime(), actual.publicationTime());
+        assertEquals(expected.cancellationDate(), actual.cancellationDate());
+        // The JAXB path combines the parts, the StAX reader leaves that to the caller
+        assertTrue(expected.calculateGeometry().equalsExact(actual.calculateGeometry()),
+                () -> expected.calculateGeometry() + " != " + actual.calculateGeometry());
+    }
+
+    private static String dataset() throws IOException {
+        try (InputStream is = S124DatasetStaxReaderTest.class.getResourceAsStream("/datasets/s124-point.xml")) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}